@@ -3,29 +3,116 @@ package com.xbz.xproxy;
 import cn.hutool.core.date.StopWatch;
 import cn.hutool.core.lang.hash.Hash;
 import com.google.common.base.Throwables;
+import com.xbz.xproxy.jfr.DomainRefreshEvent;
+import com.xbz.xproxy.metrics.ProxyMetrics;
 import com.xbz.xproxy.pojo.AppConfig;
 import com.xbz.xproxy.pojo.DomainIP;
 import com.xbz.xproxy.pojo.DomainIPInfo;
+import com.xbz.xproxy.pojo.DomainIPSnapshot;
+import com.xbz.xproxy.pojo.DomainRoute;
+import com.xbz.xproxy.pojo.ResolveFailureEnum;
+import com.xbz.xproxy.pojo.UnresolvedDomain;
+import com.xbz.xproxy.rule.DomainRuleSet;
 import com.xbz.xproxy.util.ConfigUtil;
 import com.xbz.xproxy.util.DNSUtil;
+import com.xbz.xproxy.util.DomainIPCacheUtil;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
 
+import java.io.File;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 
 /**
  * 域名和IP转换器
  */
 public class DomainIpConvertor {
     /**
-     * domainIP集合
+     * 域名IP转换数据快照：domainIP集合与未解析成功域名集合<br>
+     * 只在发布线程中生成新快照整体替换，eventLoop中的读取只需一次volatile读，无锁无竞争
      */
-    private static ConcurrentHashMap<String, DomainIP> domainIPMap = new ConcurrentHashMap<>();
+    private static volatile DomainIPSnapshot snapshot = DomainIPSnapshot.EMPTY;
     /**
-     * 未解析成功域名集合
+     * 待发布的快照更新，发布线程每次取出当前所有更新合并生成一个新快照
      */
-    private static HashSet<String> noResolveDomainSet = new HashSet<>();
+    private static final Queue<Consumer<DomainIPSnapshot.Builder>> pendingUpdates = new ConcurrentLinkedQueue<>();
+    /**
+     * 连接统计发生变化、待重新排序路由的域名
+     */
+    private static final Set<String> dirtyDomains = ConcurrentHashMap.newKeySet();
+    /**
+     * 最多记录的通配规则匹配域名数，避免大量随机子域名占用内存
+     */
+    private static final int MAX_DISCOVERED_DOMAINS = 10000;
+    /**
+     * 域名IP缓存文件名，与外部proxy_domains文件同级
+     */
+    private static final String CACHE_FILE_NAME = "domain_ip.cache";
+    /**
+     * 缓存中检测时间超过此时长的域名不再加载（毫秒）
+     */
+    private static final long CACHE_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+    /**
+     * 代理域名规则，每轮检测时从proxy_domains重新加载
+     */
+    private static volatile DomainRuleSet domainRules = DomainRuleSet.EMPTY;
+    /**
+     * 访问时匹配到通配规则的域名，与精确规则的域名一起定时检测
+     */
+    private static final Set<String> discoveredDomains = ConcurrentHashMap.newKeySet();
+    /**
+     * 域名定时检测的时间轮，每个检测到IP的域名按dns记录的ttl单独安排下次检测
+     */
+    private static final HashedWheelTimer refreshTimer = new HashedWheelTimer(
+            new DefaultThreadFactory("D2IP_Timer", true), 1, TimeUnit.SECONDS, 512);
+    /**
+     * 域名 -> 下次检测或重试
+     */
+    private static final Map<String, Timeout> refreshTimeouts = new ConcurrentHashMap<>();
+    /**
+     * 已到检测时间、等待检测的域名
+     */
+    private static final Set<String> dueDomains = ConcurrentHashMap.newKeySet();
+    /**
+     * 未检测到可用IP的域名 -> 失败状态
+     */
+    private static final Map<String, UnresolvedDomain> unresolvedDomains = new ConcurrentHashMap<>();
+    /**
+     * 已到重试时间、等待重试的未解析域名
+     */
+    private static final Set<String> retryDomains = ConcurrentHashMap.newKeySet();
+    /**
+     * 正在检测的域名 -> 检测结果，同一域名的定时检测与按需检测共用一次检测
+     */
+    private static final Map<String, CompletableFuture<DomainRoute>> inflightRefreshes = new ConcurrentHashMap<>();
+    /**
+     * 超过此时长未重新检测的路由视为过期（毫秒），为重新检测间隔上限的2倍
+     */
+    private static volatile long staleRouteMillis = TimeUnit.SECONDS.toMillis(new AppConfig().getRefreshMaxIntervalSeconds() * 2L);
+
+    /**
+     * 同时检测的域名数上限，定时检测、到期检测与按需检测共用
+     */
+    private static volatile int refreshParallelism = new AppConfig().getRefreshParallelism();
+    /**
+     * 正在检测的域名数
+     */
+    private static final AtomicInteger activeRefreshes = new AtomicInteger();
+    /**
+     * 超过并发数上限、等待开始的检测；按需检测排在队首，避免等待中的请求排在整批定时检测之后
+     */
+    private static final Deque<Runnable> queuedRefreshes = new ConcurrentLinkedDeque<>();
+    /**
+     * 正在进行的定时检测（含保存缓存），未完成前跳过下一轮
+     */
+    private static volatile CompletableFuture<Void> convertRefreshBatch = CompletableFuture.completedFuture(null);
+    /**
+     * 正在进行的到期域名检测，未完成前新到期的域名留待下次
+     */
+    private static volatile CompletableFuture<Void> dueRefreshBatch = CompletableFuture.completedFuture(null);
 
     private static ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(0, new ThreadFactory() {
         private AtomicInteger counter = new AtomicInteger();
@@ -41,6 +128,15 @@ public class DomainIpConvertor {
         }
     });
 
+    /**
+     * 域名检测结果发布线程，检测本身在解析器与探测器的eventLoop中异步进行
+     */
+    private static ExecutorService publishExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "D2IP_Publish_Thread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * 根据域名获取DomainIP
      *
@@ -48,86 +144,222 @@ public class DomainIpConvertor {
      * @return
      */
     public static DomainIP getDomainIPBy(String domain) {
-        return domainIPMap.get(domain);
+        return snapshot.getDomainIP(domain);
+    }
+
+    /**
+     * 根据域名获取预先计算的路由，eventLoop中选择IP使用此方法，不遍历IP列表<br>
+     * 路由长时间未按计划重新检测（如从缓存加载的旧数据）时，仍返回当前路由，同时在后台重新检测
+     *
+     * @param domain
+     * @return 未检测到可用IP的域名返回null
+     * @see #resolveOnDemand(String)
+     */
+    public static DomainRoute getDomainRoute(String domain) {
+        domain = normalizeDomain(domain);
+        DomainRoute route = snapshot.getRoute(domain);
+        if (route != null && route.getDomainIP().getRefreshTime() < System.currentTimeMillis() - staleRouteMillis) {
+            resolveOnDemand(domain);
+        }
+        return route;
+    }
+
+    /**
+     * 按需检测没有路由的域名<br>
+     * 域名匹配代理规则但尚未检测到IP（如新增的域名、匹配通配规则的子域名）时立即检测，同一域名同时只检测一次，
+     * 并发的请求等待同一结果。检测全程异步，可在eventLoop中调用
+     *
+     * @param domain
+     * @return 检测结果发布后的路由，没有可用IP时结果为null；不需要检测（不匹配代理规则、处于失败退避期）时返回null
+     */
+    public static CompletableFuture<DomainRoute> resolveOnDemand(String domain) {
+        domain = normalizeDomain(domain);
+        if (domain == null) {
+            return null;
+        }
+        CompletableFuture<DomainRoute> inflight = inflightRefreshes.get(domain);
+        if (inflight != null) {
+            return inflight;
+        }
+        DomainRuleSet rules = domainRules;
+        if (!rules.matches(domain) || unresolvedDomains.containsKey(domain)) {
+            return null;
+        }
+        if (!rules.isExactDomain(domain) && !discoveredDomains.contains(domain)) {
+            // 匹配通配规则的域名，登记后与精确规则的域名一起定时检测
+            if (discoveredDomains.size() >= MAX_DISCOVERED_DOMAINS) {
+                return null;
+            }
+            discoveredDomains.add(domain);
+        }
+        return refreshDomain(ConfigUtil.getAppConfig(), domain, true);
+    }
+
+    /**
+     * 主机名不区分大小写，规则与检测结果中的域名均为小写；已是小写时不创建新字符串
+     */
+    private static String normalizeDomain(String domain) {
+        return domain == null ? null : domain.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 获取未检测到可用IP的域名的失败状态
+     *
+     * @param domain
+     * @return 域名不在未解析域名中时返回null
+     */
+    public static UnresolvedDomain getUnresolvedDomain(String domain) {
+        domain = normalizeDomain(domain);
+        return domain == null ? null : unresolvedDomains.get(domain);
+    }
+
+    /**
+     * 按失败原因统计未检测到可用IP的域名数，检测异常的域名原因为null
+     */
+    public static Map<ResolveFailureEnum, Integer> countUnresolvedDomains() {
+        Map<ResolveFailureEnum, Integer> counts = new HashMap<>();
+        for (UnresolvedDomain unresolvedDomain : unresolvedDomains.values()) {
+            counts.merge(unresolvedDomain.getFailure(), 1, Integer::sum);
+        }
+        return counts;
     }
 
     /**
      * 获取实际可以的IP<br>
      * 获取规则：<br>
      * 1. 优先使用被指定为首选的IP，无论是否被标记错误次数
-     * 2. 选择ttl最小的IP，但是需要过滤掉错误次数超过上限的IP
+     * 2. 选择实际连接耗时（EWMA）最小的IP，尚未连接过的IP按探测耗时排在其后，但是需要过滤掉处于连续失败冷却期的IP
      *
      * @param domainIP
      * @return
      */
     public static DomainIPInfo getRealAvailableIpInfo(DomainIP domainIP) {
+        List<DomainIPInfo> ipInfoList = getAvailableIpInfoList(domainIP);
+        return ipInfoList.isEmpty() ? null : ipInfoList.get(0);
+    }
+
+    /**
+     * 获取按优先级排序的可用IP列表，用于多IP竞速连接<br>
+     * 排序规则与{@link #getRealAvailableIpInfo(DomainIP)}一致：首选IP在前（无论是否被标记错误次数），
+     * 其余IP过滤掉处于连续失败冷却期的IP后，已有连接耗时的按耗时EWMA从小到大排列，尚未连接过的按探测耗时从小到大排在其后，ttl仅在耗时相同时作为次要依据
+     *
+     * @param domainIP
+     * @return 可用IP列表，没有可用IP时为空列表
+     * @see DomainRoute#rank(List, long)
+     */
+    public static List<DomainIPInfo> getAvailableIpInfoList(DomainIP domainIP) {
         if (domainIP == null) {
-            return null;
+            return Collections.emptyList();
         }
-        List<DomainIPInfo> ipList = domainIP.getIpList();
-        if (ipList == null || ipList.isEmpty()) {
-            return null;
+        return DomainRoute.rank(domainIP.getIpList(), System.currentTimeMillis());
+    }
+
+    /**
+     * 记录一次连接成功，并安排重新排序所属域名的路由
+     *
+     * @param ipInfo
+     * @param rttNanos TCP连接建立耗时（纳秒）
+     */
+    public static void recordConnectSuccess(DomainIPInfo ipInfo, long rttNanos) {
+        ipInfo.recordConnectSuccess(rttNanos);
+        markRouteDirty(ipInfo.getDomain());
+    }
+
+    /**
+     * 记录一次连接失败，并安排重新排序所属域名的路由；冷却期结束时再次排序，使IP重新参与选择
+     *
+     * @param ipInfo
+     */
+    public static void recordConnectFailure(DomainIPInfo ipInfo) {
+        ipInfo.recordConnectFailure();
+        String domain = ipInfo.getDomain();
+        markRouteDirty(domain);
+        long cooldownMillis = ipInfo.getCooldownMillis();
+        if (cooldownMillis > 0) {
+            executor.schedule(() -> markRouteDirty(domain), cooldownMillis, TimeUnit.MILLISECONDS);
         }
+    }
 
-        DomainIPInfo preIpInfo = null;
-        for (DomainIPInfo ipInfo : ipList) {
-            // 优先使用 配置为首选的IP
-            if (ipInfo.isPreferred()) {
-                return ipInfo;
-            }
-            // 判断错误连接次数,超过指定错误次数后，此IP不再被使用
-            if (ipInfo.getConnectErrTimes().get() > 5) {
-                continue;
-            }
-            // 否则优先使用ttl最小的IP
-            if (preIpInfo == null || preIpInfo.getTtl().compareTo(ipInfo.getTtl()) > 0) {
-                // 更换IP
-                preIpInfo = ipInfo;
+    /**
+     * 标记域名路由待重新排序，同一域名在排序前的多次标记只排序一次
+     */
+    private static void markRouteDirty(String domain) {
+        if (domain == null || !dirtyDomains.add(domain)) {
+            return;
+        }
+        try {
+            publishExecutor.execute(DomainIpConvertor::rerankDirtyRoutes);
+        } catch (RejectedExecutionException e) {
+            // 服务已停止
+        }
+    }
+
+    /**
+     * 在发布线程中重新排序待排序域名的路由
+     */
+    private static void rerankDirtyRoutes() {
+        long now = System.currentTimeMillis();
+        DomainIPSnapshot currentSnapshot = snapshot;
+        Iterator<String> iterator = dirtyDomains.iterator();
+        while (iterator.hasNext()) {
+            String domain = iterator.next();
+            iterator.remove();
+            DomainRoute route = currentSnapshot.getRoute(domain);
+            if (route != null) {
+                route.rerank(now);
             }
         }
-        return preIpInfo;
     }
 
     /**
      * 启动转换器
      */
     public void start() {
-        // 定时任务1：进行域名->IP的转换工作,每次间隔10分钟
+        staleRouteMillis = TimeUnit.SECONDS.toMillis(ConfigUtil.getAppConfig().getRefreshMaxIntervalSeconds() * 2L);
+        refreshParallelism = ConfigUtil.getAppConfig().getRefreshParallelism();
+        // 加载上次保存的域名IP，首轮检测完成前即可使用，随后由定时任务重新检测
+        loadCache();
+        // 定时任务1：重新加载代理域名，检测尚未安排检测的域名，每次间隔5分钟
         executor.scheduleWithFixedDelay(this::doConvertTask, 0, 5, TimeUnit.MINUTES);
-        // 定时任务2：进行未解析域名->IP的高频检查，每次间隔10秒
-        executor.scheduleWithFixedDelay(this::doNoResolveDomainTask, 10, 10, TimeUnit.SECONDS);
+        // 定时任务2：检测按ttl到期的域名及到达重试时间的未解析域名，每次间隔1秒
+        executor.scheduleWithFixedDelay(this::doDueDomainTask, 1, 1, TimeUnit.SECONDS);
     }
 
     /**
-     * 检测未解析成功的域名集合进行高频检测
+     * 检测按ttl到期的域名及到达重试时间的未解析域名，每次只检测少量到期的域名，检测负载均匀分散；
+     * 未解析域名每次最多重试{@code retryBudget}个，超出的顺延到下次
      */
-    private void doNoResolveDomainTask() {
-        StopWatch stopWatch = new StopWatch("检测未探测到IP的域名");
+    private void doDueDomainTask() {
         try {
-            stopWatch.start("检测是否有待处理数据");
-            if (noResolveDomainSet.isEmpty()) {
+            if ((dueDomains.isEmpty() && retryDomains.isEmpty()) || !dueRefreshBatch.isDone()) {
                 return;
             }
-            stopWatch.stop();
-            stopWatch.start("执行检测");
             AppConfig appConfig = ConfigUtil.getAppConfig();
-            List<String> dnsList = appConfig.getDnsList();
-            for (String domain : noResolveDomainSet) {
-                DomainIP domainIP = parseDomainIPInfo(appConfig, dnsList, domain);
-                List<DomainIPInfo> ipList = domainIP.getIpList();
-                if (ipList != null && !ipList.isEmpty()) {
-                    domainIPMap.put(domain, domainIP);
-                    noResolveDomainSet.remove(domain);
-                }
+            DomainRuleSet rules = domainRules;
+            List<String> domains = new ArrayList<>();
+            drainMatchingDomains(dueDomains, rules, Integer.MAX_VALUE, domains);
+            drainMatchingDomains(retryDomains, rules, appConfig.getRetryBudget(), domains);
+            if (!domains.isEmpty()) {
+                dueRefreshBatch = refreshDomains(appConfig, domains, false);
             }
-            stopWatch.stop();
         } catch (Exception e) {
-            System.err.println("任务处理异常\n" + Throwables.getStackTraceAsString(e));
-        } finally {
-            if (stopWatch.isRunning()) {
-                stopWatch.stop();
+            System.err.println("任务执行异常" + Throwables.getStackTraceAsString(e));
+        }
+    }
+
+    /**
+     * 取出最多{@code limit}个域名，忽略不再匹配代理规则的域名
+     */
+    private static void drainMatchingDomains(Set<String> source, DomainRuleSet rules, int limit, List<String> domains) {
+        Iterator<String> iterator = source.iterator();
+        int count = 0;
+        while (count < limit && iterator.hasNext()) {
+            String domain = iterator.next();
+            iterator.remove();
+            if (rules.matches(domain)) {
+                domains.add(domain);
+                count++;
             }
-            System.out.println(stopWatch.prettyPrint());
         }
     }
 
@@ -135,95 +367,476 @@ public class DomainIpConvertor {
      * 进行转换工作
      */
     private void doConvertTask() {
+        if (!convertRefreshBatch.isDone()) {
+            System.out.println("上一轮域名IP检测尚未完成，跳过本轮");
+            return;
+        }
         StopWatch stopWatch = new StopWatch("域名IP检测");
         try {
             stopWatch.start("域名检测");
-            List<String> domains = ConfigUtil.readProxyDomains();
+            DomainRuleSet rules = DomainRuleSet.parse(ConfigUtil.readProxyDomains());
             AppConfig appConfig = ConfigUtil.getAppConfig();
-            List<String> dnsList = appConfig.getDnsList();
-            if (domains.isEmpty()) {
-                return;
-            }
-            for (String domain : domains) {
-                if (noResolveDomainSet.contains(domain)) {
-                    continue;
+            // 检测不阻塞定时任务线程，整批完成后保存缓存并输出当前数据
+            convertRefreshBatch = applyRules(rules).thenCompose(domains -> {
+                // 已安排定时检测的域名由时间轮按ttl检测，这里只检测新增的域名
+                Set<String> noResolveDomains = snapshot.getNoResolveDomains();
+                List<String> refreshDomains = new ArrayList<>(domains.size());
+                for (String domain : domains) {
+                    if (!noResolveDomains.contains(domain) && !refreshTimeouts.containsKey(domain)) {
+                        refreshDomains.add(domain);
+                    }
                 }
-                //            System.out.println("探测域名[" + domain + "]...开始");
-                DomainIP domainIP = parseDomainIPInfo(appConfig, dnsList, domain);
-                List<DomainIPInfo> ipList = domainIP.getIpList();
-                if (ipList != null && !ipList.isEmpty()) {
-                    domainIPMap.put(domain, domainIP);
-                } else {
-                    // 未检测到可用IP
-                    domainIPMap.remove(domain);
-                    noResolveDomainSet.add(domain);
+                return refreshDomains(appConfig, refreshDomains, true);
+            }).whenComplete((v, e) -> {
+                try {
+                    if (e != null) {
+                        System.err.println("任务执行异常" + Throwables.getStackTraceAsString(e));
+                        return;
+                    }
+                    stopWatch.stop();
+                    stopWatch.start("保存缓存");
+                    saveCache();
+                    stopWatch.stop();
+                    printCurrentData();
+                } catch (Exception ex) {
+                    System.err.println("任务执行异常" + Throwables.getStackTraceAsString(ex));
+                } finally {
+                    finishConvertTask(stopWatch);
                 }
-                //            System.out.println("探测域名[" + domain + "]...结束");
+            });
+        } catch (Exception e) {
+            System.err.println("任务执行异常" + Throwables.getStackTraceAsString(e));
+            finishConvertTask(stopWatch);
+        }
+    }
+
+    /**
+     * 应用重新加载的代理域名规则：移除不再匹配规则的域名的通配登记、定时检测、失败状态及快照中的域名IP，
+     * 避免已移除的域名继续返回旧路由或被保存到缓存
+     *
+     * @return 规则中需要检测的域名，快照更新生效后完成
+     */
+    static CompletableFuture<Set<String>> applyRules(DomainRuleSet rules) {
+        domainRules = rules;
+        // 移除不再匹配规则的通配域名
+        discoveredDomains.removeIf(domain -> !rules.matches(domain));
+        Set<String> domains = new LinkedHashSet<>(rules.getExactDomains());
+        domains.addAll(discoveredDomains);
+        // 取消已移除域名的定时检测
+        refreshTimeouts.entrySet().removeIf(entry -> {
+            if (domains.contains(entry.getKey())) {
+                return false;
             }
+            entry.getValue().cancel();
+            return true;
+        });
+        unresolvedDomains.keySet().removeIf(domain -> !domains.contains(domain));
+        return publish(builder -> builder.retainDomains(domains)).thenApply(v -> domains);
+    }
+
+    private static void finishConvertTask(StopWatch stopWatch) {
+        if (stopWatch.isRunning()) {
             stopWatch.stop();
-            System.out.println("===========当前域名IP转换服务数据======================");
-            domainIPMap.forEach((k, v) -> {
-                System.out.println(v.getPrettyPrint());
-            });
-            if(!noResolveDomainSet.isEmpty()){
-                System.out.println("-----------未转换成功的域名列表("+noResolveDomainSet.size()+")------------------------");
-                for (String domain : noResolveDomainSet) {
-                    System.out.println(domain);
+        }
+        System.out.println(stopWatch.prettyPrint());
+    }
+
+    private static void printCurrentData() {
+        System.out.println("===========当前域名IP转换服务数据======================");
+        DomainIPSnapshot currentSnapshot = snapshot;
+        currentSnapshot.getDomainIPMap().forEach((k, v) -> {
+            System.out.println(v.getPrettyPrint());
+        });
+        Set<String> currentNoResolveDomains = currentSnapshot.getNoResolveDomains();
+        if(!currentNoResolveDomains.isEmpty()){
+            System.out.println("-----------未转换成功的域名列表("+currentNoResolveDomains.size()+")------------------------");
+            for (String domain : currentNoResolveDomains) {
+                UnresolvedDomain unresolvedDomain = unresolvedDomains.get(domain);
+                System.out.println(unresolvedDomain != null ? unresolvedDomain.getPrettyPrint() : domain);
+            }
+
+        }
+        System.out.println("===========当前域名IP转换服务数据======================");
+    }
+
+    /**
+     * 并发检测一批域名的IP<br>
+     * 所有域名立即提交，同时检测的域名数由{@link #submitRefresh(Runnable, boolean)}统一限制，不阻塞调用线程；
+     * 每个域名检测完成后立即提交发布，不必等待整批完成
+     *
+     * @param domains      待检测的域名
+     * @param printSummary 是否输出本轮检测汇总
+     * @return 整批域名全部完成且结果均已发布后完成，不会异常完成
+     * @see #refreshDomain(AppConfig, String, boolean)
+     */
+    private static CompletableFuture<Void> refreshDomains(AppConfig appConfig, List<String> domains, boolean printSummary) {
+        DomainRefreshEvent event = new DomainRefreshEvent();
+        event.begin();
+        long startNanos = System.nanoTime();
+        long startProbeCount = DNSUtil.getProbeCount();
+        AtomicInteger resolvedCount = new AtomicInteger();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[domains.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = refreshDomain(appConfig, domains.get(i), false).thenAccept(route -> {
+                if (route != null) {
+                    resolvedCount.incrementAndGet();
                 }
+            });
+        }
+        return CompletableFuture.allOf(futures).thenRun(() -> {
+            if (!domains.isEmpty()) {
+                ProxyMetrics.recordRefresh(System.nanoTime() - startNanos);
+                DomainRefreshEvent.emit(event, domains.size(), resolvedCount.get(),
+                        DNSUtil.getProbeCount() - startProbeCount, refreshParallelism);
+            }
+            if (printSummary) {
+                System.out.printf("本轮检测域名%d个，检测到可用IP的域名%d个，探测IP%d次，并发数%d，耗时%dms\n", domains.size(), resolvedCount.get(),
+                        DNSUtil.getProbeCount() - startProbeCount, refreshParallelism,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            }
+        });
+    }
 
+    /**
+     * 提交一次检测，正在检测的域名数未达到上限时立即开始，否则排队等待已开始的检测完成
+     *
+     * @param onDemand 是否为请求触发的按需检测，按需检测排在队首
+     */
+    static void submitRefresh(Runnable refresh, boolean onDemand) {
+        if (onDemand) {
+            queuedRefreshes.addFirst(refresh);
+        } else {
+            queuedRefreshes.addLast(refresh);
+        }
+        startQueuedRefreshes();
+    }
+
+    /**
+     * 在并发数上限内开始排队的检测；先占用名额再取任务，取不到时归还名额并重新检查，避免与提交并发时遗漏任务
+     */
+    private static void startQueuedRefreshes() {
+        while (!queuedRefreshes.isEmpty()) {
+            int active = activeRefreshes.get();
+            if (active >= refreshParallelism) {
+                return;
             }
-            System.out.println("===========当前域名IP转换服务数据======================");
+            if (!activeRefreshes.compareAndSet(active, active + 1)) {
+                continue;
+            }
+            Runnable refresh = queuedRefreshes.poll();
+            if (refresh == null) {
+                activeRefreshes.decrementAndGet();
+                continue;
+            }
+            refresh.run();
+        }
+    }
+
+    /**
+     * 一次检测结束，归还名额并开始排队的检测
+     */
+    static void finishRefresh() {
+        activeRefreshes.decrementAndGet();
+        startQueuedRefreshes();
+    }
+
+    /**
+     * 检测单个域名的IP，同一域名同时只进行一次检测，并发的调用共用同一结果<br>
+     * 检测到IP时更新域名IP并按dns记录的ttl安排下次检测，否则加入未解析域名并按失败次数退避重试；
+     * 正在检测的域名数达到配置的并发数时排队
+     *
+     * @param onDemand 是否为请求触发的按需检测
+     * @return 检测结果发布后的路由，没有可用IP时结果为null，不会异常完成
+     */
+    private static CompletableFuture<DomainRoute> refreshDomain(AppConfig appConfig, String domain, boolean onDemand) {
+        CompletableFuture<DomainRoute> result = new CompletableFuture<>();
+        CompletableFuture<DomainRoute> inflight = inflightRefreshes.putIfAbsent(domain, result);
+        if (inflight != null) {
+            return inflight;
+        }
+        submitRefresh(() -> {
+            result.whenComplete((route, e) -> finishRefresh());
+            startRefresh(appConfig, domain, result);
+        }, onDemand);
+        return result;
+    }
+
+    private static void startRefresh(AppConfig appConfig, String domain, CompletableFuture<DomainRoute> result) {
+        if (!domainRules.matches(domain)) {
+            // 排队期间域名已从代理规则中移除
+            completeRefresh(domain, result, false);
+            return;
+        }
+        CompletableFuture<DomainIP> future;
+        try {
+            future = parseDomainIPInfoAsync(appConfig, appConfig.getDnsList(), domain);
         } catch (Exception e) {
-            System.err.println("任务执行异常" + Throwables.getStackTraceAsString(e));
-        } finally {
-            if (stopWatch.isRunning()) {
-                stopWatch.stop();
+            future = CompletableFuture.failedFuture(e);
+        }
+        future.whenComplete((domainIP, e) -> {
+            if (!domainRules.matches(domain)) {
+                // 检测期间域名已从代理规则中移除，不再发布结果及安排下次检测
+                completeRefresh(domain, result, false);
+                return;
+            }
+            if (e != null) {
+                System.err.println("域名[" + domain + "]检测异常\n" + Throwables.getStackTraceAsString(e));
+                scheduleRetry(appConfig, domain, null);
+                completeRefresh(domain, result, false);
+                return;
+            }
+            boolean resolved = domainIP.getIpList() != null && !domainIP.getIpList().isEmpty();
+            if (resolved) {
+                unresolvedDomains.remove(domain);
+                scheduleRefresh(appConfig, domain, domainIP.getDnsTtlSeconds());
+            } else {
+                scheduleRetry(appConfig, domain, domainIP.getFailure());
+            }
+            try {
+                publish(builder -> putOrUnresolved(builder, domainIP));
+            } catch (RejectedExecutionException rejected) {
+                // 服务已停止
+                completeRefresh(domain, result, false);
+                return;
+            }
+            completeRefresh(domain, result, resolved);
+        });
+    }
+
+    /**
+     * 检测结果发布后完成检测，发布线程按提交顺序执行，此时新快照已生效
+     */
+    private static void completeRefresh(String domain, CompletableFuture<DomainRoute> result, boolean resolved) {
+        Runnable complete = () -> {
+            inflightRefreshes.remove(domain, result);
+            result.complete(resolved ? snapshot.getRoute(domain) : null);
+        };
+        try {
+            publishExecutor.execute(complete);
+        } catch (RejectedExecutionException e) {
+            complete.run();
+        }
+    }
+
+    /**
+     * 按dns记录的ttl安排域名的下次检测，替换已安排的检测
+     */
+    private static void scheduleRefresh(AppConfig appConfig, String domain, long dnsTtlSeconds) {
+        long delayMillis = refreshDelayMillis(appConfig, dnsTtlSeconds, ThreadLocalRandom.current().nextDouble());
+        schedule(domain, delayMillis, dueDomains);
+    }
+
+    /**
+     * 记录域名检测失败，按连续失败次数指数退避安排重试，替换已安排的检测
+     *
+     * @param failure 失败原因，检测异常时为null
+     */
+    static void scheduleRetry(AppConfig appConfig, String domain, ResolveFailureEnum failure) {
+        long now = System.currentTimeMillis();
+        UnresolvedDomain unresolvedDomain = unresolvedDomains.compute(domain, (k, old) -> {
+            UnresolvedDomain state = old != null ? old : new UnresolvedDomain();
+            state.setDomain(domain);
+            state.setFailure(failure);
+            state.setFailTimes(state.getFailTimes() + 1);
+            state.setLastFailTime(now);
+            return state;
+        });
+        long delayMillis = retryDelayMillis(appConfig, unresolvedDomain.getFailTimes(), ThreadLocalRandom.current().nextDouble());
+        unresolvedDomain.setNextRetryTime(now + delayMillis);
+        schedule(domain, delayMillis, retryDomains);
+    }
+
+    /**
+     * 在时间轮中安排域名到期后加入{@code target}
+     */
+    private static void schedule(String domain, long delayMillis, Set<String> target) {
+        Timeout timeout;
+        try {
+            timeout = refreshTimer.newTimeout(t -> target.add(domain), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            // 服务已停止
+            return;
+        }
+        Timeout oldTimeout = refreshTimeouts.put(domain, timeout);
+        if (oldTimeout != null) {
+            oldTimeout.cancel();
+        }
+    }
+
+    /**
+     * 计算重试延迟：从下限开始按连续失败次数翻倍，最长为上限，再随机提前最多{@code refreshJitter}比例
+     *
+     * @param failTimes 连续失败次数
+     * @param random    [0,1)之间的随机数
+     * @return 延迟（毫秒）
+     */
+    static long retryDelayMillis(AppConfig appConfig, int failTimes, double random) {
+        long intervalMillis = Math.min(TimeUnit.SECONDS.toMillis(appConfig.getRetryMinIntervalSeconds()) << Math.min(failTimes - 1, 20),
+                TimeUnit.SECONDS.toMillis(appConfig.getRetryMaxIntervalSeconds()));
+        return intervalMillis - (long) (intervalMillis * appConfig.getRefreshJitter() * random);
+    }
+
+    /**
+     * 计算下次检测的延迟：ttl限制在配置的上下限之间（没有ttl时取上限），再随机提前最多{@code refreshJitter}比例
+     *
+     * @param random [0,1)之间的随机数
+     * @return 延迟（毫秒）
+     */
+    static long refreshDelayMillis(AppConfig appConfig, long dnsTtlSeconds, double random) {
+        long intervalSeconds = dnsTtlSeconds < 0 ? appConfig.getRefreshMaxIntervalSeconds()
+                : Math.max(appConfig.getRefreshMinIntervalSeconds(), Math.min(dnsTtlSeconds, appConfig.getRefreshMaxIntervalSeconds()));
+        long intervalMillis = TimeUnit.SECONDS.toMillis(intervalSeconds);
+        return intervalMillis - (long) (intervalMillis * appConfig.getRefreshJitter() * random);
+    }
+
+    /**
+     * 检测到IP时更新域名IP，否则加入未解析域名
+     */
+    private static void putOrUnresolved(DomainIPSnapshot.Builder builder, DomainIP domainIP) {
+        List<DomainIPInfo> ipList = domainIP.getIpList();
+        if (ipList != null && !ipList.isEmpty()) {
+            putDomainIP(builder, domainIP);
+        } else {
+            // 未检测到可用IP
+            builder.unresolved(domainIP.getDomain());
+        }
+    }
+
+    /**
+     * 提交快照更新，在发布线程中生效
+     *
+     * @return 更新生效后完成：发布线程按提交顺序执行，本次提交的任务执行完时更新已被本次或之前的任务应用
+     */
+    private static CompletableFuture<Void> publish(Consumer<DomainIPSnapshot.Builder> update) {
+        CompletableFuture<Void> published = new CompletableFuture<>();
+        pendingUpdates.add(update);
+        publishExecutor.execute(() -> {
+            applyPendingUpdates();
+            published.complete(null);
+        });
+        return published;
+    }
+
+    /**
+     * 在发布线程中合并应用所有待发布的更新，只复制一次快照；检测结果密集完成时多个更新合并为一个新快照
+     */
+    private static void applyPendingUpdates() {
+        Consumer<DomainIPSnapshot.Builder> update = pendingUpdates.poll();
+        if (update == null) {
+            return;
+        }
+        DomainIPSnapshot.Builder builder = snapshot.toBuilder();
+        do {
+            update.accept(builder);
+        } while ((update = pendingUpdates.poll()) != null);
+        snapshot = builder.build();
+    }
+
+    /**
+     * 更新域名IP，重新检测到的IP继承旧记录中的连接统计（失败次数、连接耗时）
+     */
+    private static void putDomainIP(DomainIPSnapshot.Builder builder, DomainIP domainIP) {
+        String domain = domainIP.getDomain();
+        DomainIP oldDomainIP = builder.getDomainIP(domain);
+        if (oldDomainIP != null && oldDomainIP.getIpList() != null) {
+            Map<String, DomainIPInfo> oldIpInfoMap = new HashMap<>();
+            for (DomainIPInfo oldIpInfo : oldDomainIP.getIpList()) {
+                oldIpInfoMap.put(oldIpInfo.getIp(), oldIpInfo);
+            }
+            for (DomainIPInfo ipInfo : domainIP.getIpList()) {
+                DomainIPInfo oldIpInfo = oldIpInfoMap.get(ipInfo.getIp());
+                if (oldIpInfo != null) {
+                    ipInfo.inheritConnectStats(oldIpInfo);
+                }
             }
-            System.out.println(stopWatch.prettyPrint());
         }
+        builder.resolved(domain, domainIP);
     }
 
-    public DomainIP parseDomainIPInfo(AppConfig appConfig, List<String> dnsList, String domain) {
+    public static DomainIP parseDomainIPInfo(AppConfig appConfig, List<String> dnsList, String domain) {
+        return parseDomainIPInfoAsync(appConfig, dnsList, domain).join();
+    }
+
+    /**
+     * 异步检测域名IP，用户配置了固定IP的域名优先使用可用的固定IP，固定IP都不可用时再进行dns解析
+     *
+     * @param appConfig
+     * @param dnsList
+     * @param domain
+     * @return 域名IP，没有可用IP时IP列表为空
+     */
+    public static CompletableFuture<DomainIP> parseDomainIPInfoAsync(AppConfig appConfig, List<String> dnsList, String domain) {
         // 检查是否是用户用户的IP域名
         Map<String, List<String>> domainIPsMap = appConfig.getFixedDomainIPsMap();
         List<String> fixedIps = domainIPsMap.get(domain);
-        if (fixedIps != null && !fixedIps.isEmpty()) {
-            HashSet<DomainIPInfo> ipSet = new HashSet<>();
-            List<CompletableFuture<Void>> futures = dnsList.stream().map(dns -> {
-                return CompletableFuture.runAsync(() -> {
-                    try {
-                        for (String ip : fixedIps) {
-                            // 检查IP是否可达
-                            DomainIPInfo ipInfo = DNSUtil.getDomainIPInfo(domain, ip);
-                            if (ipInfo != null) {
-                                ipSet.add(ipInfo);
-                            }
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                });
-            }).collect(Collectors.toCollection(ArrayList::new));
-            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-            if (ipSet.isEmpty()) {
-                System.err.printf("警告：域名%s配置IP：%s.已不可用！系统将自动检索可用IP进行使用，请及时更新IP！\n", domain, Arrays.toString(fixedIps.toArray(new String[0])));
-                return DNSUtil.domain2IP(dnsList, domain);
-            } else {
-                DomainIP domainIP = new DomainIP();
-                domainIP.setDomain(domain);
-                for (DomainIPInfo ipInfo : ipSet) {
-                    ipInfo.setPreferred(true);
+        if (fixedIps == null || fixedIps.isEmpty()) {
+            return DNSUtil.domain2IPAsync(dnsList, domain, appConfig.isIpv6());
+        }
+        return DNSUtil.probeAll(domain, fixedIps, true).thenCompose(domainIP -> {
+            if (!domainIP.getIpList().isEmpty()) {
+                return CompletableFuture.completedFuture(domainIP);
+            }
+            System.err.printf("警告：域名%s配置IP：%s.已不可用！系统将自动检索可用IP进行使用，请及时更新IP！\n", domain, Arrays.toString(fixedIps.toArray(new String[0])));
+            return DNSUtil.domain2IPAsync(dnsList, domain, appConfig.isIpv6());
+        });
+    }
+
+    /**
+     * 加载缓存的域名IP，只加载仍在代理规则中的域名
+     */
+    private void loadCache() {
+        try {
+            DomainRuleSet rules = DomainRuleSet.parse(ConfigUtil.readProxyDomains());
+            domainRules = rules;
+            Set<String> exactDomains = new HashSet<>(rules.getExactDomains());
+            List<DomainIP> cachedDomainIPs = DomainIPCacheUtil.load(ConfigUtil.getAppFile(CACHE_FILE_NAME), CACHE_MAX_AGE_MILLIS);
+            List<DomainIP> loadedDomainIPs = new ArrayList<>(cachedDomainIPs.size());
+            for (DomainIP domainIP : cachedDomainIPs) {
+                String domain = domainIP.getDomain();
+                if (domainIP.getIpList().isEmpty() || !rules.matches(domain)) {
+                    continue;
+                }
+                if (!exactDomains.contains(domain) && discoveredDomains.size() < MAX_DISCOVERED_DOMAINS) {
+                    discoveredDomains.add(domain);
                 }
-                domainIP.setIpList(new ArrayList<>(ipSet));
-                return domainIP;
+                loadedDomainIPs.add(domainIP);
             }
-        } else {
-            return DNSUtil.domain2IP(dnsList, domain);
+            publishResolved(loadedDomainIPs);
+            System.out.printf("从缓存加载域名IP%d个\n", loadedDomainIPs.size());
+        } catch (Exception e) {
+            System.err.println("加载域名IP缓存失败，将重新检测：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 发布已检测到IP的域名，如从缓存加载的域名IP
+     *
+     * @return 发布生效后完成
+     */
+    static CompletableFuture<Void> publishResolved(List<DomainIP> domainIPs) {
+        return publish(builder -> {
+            for (DomainIP domainIP : domainIPs) {
+                builder.resolved(domainIP.getDomain(), domainIP);
+            }
+        });
+    }
+
+    /**
+     * 保存当前域名IP到缓存文件
+     */
+    private static void saveCache() {
+        try {
+            DomainIPCacheUtil.save(ConfigUtil.getAppFile(CACHE_FILE_NAME), snapshot.getDomainIPMap().values());
+        } catch (Exception e) {
+            System.err.println("保存域名IP缓存失败：" + e.getMessage());
         }
     }
 
     public void stop() {
         System.out.println("探测域名服务停止！");
         executor.shutdownNow();
+        refreshTimer.stop();
+        publishExecutor.shutdownNow();
+        saveCache();
     }
 }
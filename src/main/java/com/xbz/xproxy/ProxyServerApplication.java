@@ -6,6 +6,8 @@ import com.xbz.xproxy.exception.BusinessException;
 import com.xbz.xproxy.exception.IllegalArgsException;
 import com.xbz.xproxy.netty.ProxyServerStatusEnum;
 import com.xbz.xproxy.netty.SimpleNettySocketHttpProxy;
+import com.xbz.xproxy.netty.TransportTypeEnum;
+import com.xbz.xproxy.pojo.ProxyServerConfig;
 import com.xbz.xproxy.util.ConfigUtil;
 import com.xbz.xproxy.util.DNSUtil;
 import com.xbz.xproxy.util.WindowsProxyTool;
@@ -41,14 +43,16 @@ public class ProxyServerApplication {
 
         // 解析输入参数
         Map<String, String> argsMap;
+        ProxyServerConfig serverConfig;
         try {
             argsMap = parseArgs(args);
+            serverConfig = parseServerConfig(argsMap);
         } catch (IllegalArgsException e) {
             System.err.println(e.getErrMsg());
             return;
         }
-        int port = Integer.parseInt(argsMap.getOrDefault("port", "8080"));
-        String host = argsMap.getOrDefault("host", "0.0.0.0");
+        int port = serverConfig.getPort();
+        String host = serverConfig.getHost();
 
         // 校验软件可用性
         try {
@@ -58,7 +62,7 @@ public class ProxyServerApplication {
             System.err.println(errMsg);
             return;
         }
-        httpProxy = new SimpleNettySocketHttpProxy(host, port);
+        httpProxy = new SimpleNettySocketHttpProxy(serverConfig);
         httpProxy.startProxyServer();
 
         while (httpProxy.getStatus() == ProxyServerStatusEnum.PREPARE) {
@@ -160,6 +164,72 @@ public class ProxyServerApplication {
         // TODO 是否具备授权许可->加密算法实现单设备使用限制
     }
 
+    /**
+     * 解析代理服务器配置
+     *
+     * @param argsMap
+     * @return
+     */
+    private static ProxyServerConfig parseServerConfig(Map<String, String> argsMap) {
+        List<String> illegalArgsList = new ArrayList<>();
+        ProxyServerConfig serverConfig = new ProxyServerConfig();
+        serverConfig.setHost(argsMap.getOrDefault("host", "0.0.0.0"));
+        serverConfig.setPort(Integer.parseInt(argsMap.getOrDefault("port", "8080")));
+
+        String transportArg = argsMap.getOrDefault("transport", TransportTypeEnum.AUTO);
+        TransportTypeEnum transport = TransportTypeEnum.select(transportArg);
+        if (transport == null) {
+            illegalArgsList.add("--transport=" + transportArg + ":可选值为auto|nio|epoll|io_uring");
+        }
+        serverConfig.setTransport(transport);
+        serverConfig.setSplice(Boolean.parseBoolean(argsMap.getOrDefault("splice", "true")));
+
+        int lowWaterMark = serverConfig.getWriteBufferLowWaterMark();
+        int highWaterMark = serverConfig.getWriteBufferHighWaterMark();
+        try {
+            lowWaterMark = Integer.parseInt(argsMap.getOrDefault("write_buffer_low_water_mark", String.valueOf(lowWaterMark)));
+            highWaterMark = Integer.parseInt(argsMap.getOrDefault("write_buffer_high_water_mark", String.valueOf(highWaterMark)));
+        } catch (NumberFormatException e) {
+            illegalArgsList.add("--write_buffer_low_water_mark/--write_buffer_high_water_mark:需要为整数（字节）");
+        }
+        if (lowWaterMark <= 0 || highWaterMark < lowWaterMark) {
+            illegalArgsList.add("--write_buffer_low_water_mark=" + lowWaterMark + ",--write_buffer_high_water_mark=" + highWaterMark + ":需要满足0<低水位<=高水位");
+        }
+        serverConfig.setWriteBufferLowWaterMark(lowWaterMark);
+        serverConfig.setWriteBufferHighWaterMark(highWaterMark);
+        serverConfig.setFlushConsolidation(Boolean.parseBoolean(argsMap.getOrDefault("flush_consolidation", "true")));
+
+        try {
+            serverConfig.setConnectStaggerMillis(Long.parseLong(argsMap.getOrDefault("connect_stagger", String.valueOf(serverConfig.getConnectStaggerMillis()))));
+        } catch (NumberFormatException e) {
+            illegalArgsList.add("--connect_stagger:需要为整数（毫秒）");
+        }
+        if (serverConfig.getConnectStaggerMillis() < 0) {
+            illegalArgsList.add("--connect_stagger=" + serverConfig.getConnectStaggerMillis() + ":需要>=0，为0时不进行多IP竞速连接");
+        }
+
+        try {
+            serverConfig.setUpstreamMaxConnectionsPerHost(Integer.parseInt(argsMap.getOrDefault("upstream_max_per_host", String.valueOf(serverConfig.getUpstreamMaxConnectionsPerHost()))));
+            serverConfig.setUpstreamMaxIdlePerHost(Integer.parseInt(argsMap.getOrDefault("upstream_max_idle_per_host", String.valueOf(serverConfig.getUpstreamMaxIdlePerHost()))));
+            serverConfig.setUpstreamIdleTimeoutSeconds(Integer.parseInt(argsMap.getOrDefault("upstream_idle_timeout", String.valueOf(serverConfig.getUpstreamIdleTimeoutSeconds()))));
+        } catch (NumberFormatException e) {
+            illegalArgsList.add("--upstream_max_per_host/--upstream_max_idle_per_host/--upstream_idle_timeout:需要为整数");
+        }
+        if (serverConfig.getUpstreamMaxConnectionsPerHost() <= 0 || serverConfig.getUpstreamMaxIdlePerHost() < 0
+                || serverConfig.getUpstreamMaxIdlePerHost() > serverConfig.getUpstreamMaxConnectionsPerHost()
+                || serverConfig.getUpstreamIdleTimeoutSeconds() <= 0) {
+            illegalArgsList.add("--upstream_max_per_host=" + serverConfig.getUpstreamMaxConnectionsPerHost()
+                    + ",--upstream_max_idle_per_host=" + serverConfig.getUpstreamMaxIdlePerHost()
+                    + ",--upstream_idle_timeout=" + serverConfig.getUpstreamIdleTimeoutSeconds()
+                    + ":需要满足最大连接数>0，0<=最大空闲连接数<=最大连接数，空闲超时(秒)>0");
+        }
+
+        if (!illegalArgsList.isEmpty()) {
+            throw new IllegalArgsException(illegalArgsList);
+        }
+        return serverConfig;
+    }
+
     private static Map<String, String> parseArgs(String[] args) {
         Map<String, String> argsMap = new HashMap<>();
         List<String> unknownArgsList = new ArrayList<>();
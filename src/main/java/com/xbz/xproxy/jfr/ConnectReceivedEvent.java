@@ -0,0 +1,28 @@
+package com.xbz.xproxy.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * 收到客户端CONNECT请求
+ */
+@Name("xproxy.ConnectReceived")
+@Label("CONNECT Received")
+@Category({"xproxy", "Connection"})
+@Description("A CONNECT request was received from a client")
+@StackTrace(false)
+public class ConnectReceivedEvent extends Event {
+    @Label("Host")
+    String host;
+
+    @Label("Port")
+    int port;
+
+    public static void emit(String host, int port) {
+        ConnectReceivedEvent event = new ConnectReceivedEvent();
+        if (event.shouldCommit()) {
+            event.host = host;
+            event.port = port;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.xbz.xproxy.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * 一轮域名IP检测，事件持续时间为本轮检测的耗时
+ */
+@Name("xproxy.DomainRefresh")
+@Label("Domain Refresh")
+@Category({"xproxy", "DNS"})
+@Description("A batch of domains resolved and probed by DomainIpConvertor")
+@StackTrace(false)
+public class DomainRefreshEvent extends Event {
+    @Label("Domains")
+    int domains;
+
+    @Label("Resolved Domains")
+    @Description("Domains with at least one reachable IP")
+    int resolvedDomains;
+
+    @Label("Probes")
+    @Description("IP probes actually started, probe cache hits excluded")
+    long probes;
+
+    @Label("Parallelism")
+    int parallelism;
+
+    /**
+     * 结束并提交事件，事件在本轮检测开始时已调用{@link #begin()}
+     */
+    public static void emit(DomainRefreshEvent event, int domains, int resolvedDomains, long probes, int parallelism) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.domains = domains;
+            event.resolvedDomains = resolvedDomains;
+            event.probes = probes;
+            event.parallelism = parallelism;
+            event.commit();
+        }
+    }
+}
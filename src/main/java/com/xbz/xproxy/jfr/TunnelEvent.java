@@ -0,0 +1,49 @@
+package com.xbz.xproxy.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * CONNECT隧道，事件持续时间为隧道从目标连接建立到客户端连接关闭的存活时间，隧道关闭时提交<br>
+ * 转发字节数统计经过pipeline的数据，开启splice零拷贝后的数据不计入
+ */
+@Name("xproxy.Tunnel")
+@Label("Tunnel")
+@Category({"xproxy", "Connection"})
+@Description("A CONNECT tunnel, committed when it is closed")
+@StackTrace(false)
+public class TunnelEvent extends Event {
+    @Label("Domain")
+    String domain;
+
+    @Label("IP")
+    String ip;
+
+    @Label("Upstream Bytes")
+    @Description("Bytes relayed from the client to the upstream server")
+    @DataAmount
+    long upstreamBytes;
+
+    @Label("Downstream Bytes")
+    @Description("Bytes relayed from the upstream server to the client")
+    @DataAmount
+    long downstreamBytes;
+
+    @Label("Spliced")
+    @Description("Whether the tunnel switched to splice zero-copy, bytes after that are not counted")
+    boolean spliced;
+
+    /**
+     * 隧道关闭时结束并提交事件，事件在目标连接建立时已调用{@link #begin()}
+     */
+    public static void emit(TunnelEvent event, String domain, String ip, long upstreamBytes, long downstreamBytes, boolean spliced) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.domain = domain;
+            event.ip = ip;
+            event.upstreamBytes = upstreamBytes;
+            event.downstreamBytes = downstreamBytes;
+            event.spliced = spliced;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.xbz.xproxy.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * 一次目标连接完成（成功或失败）<br>
+ * 连接耗时由调用方测量，记录在<code>connectTime</code>中，事件本身的时间点为连接完成时
+ */
+@Name("xproxy.UpstreamConnect")
+@Label("Upstream Connect")
+@Category({"xproxy", "Connection"})
+@Description("A TCP connection attempt to an upstream server completed")
+@StackTrace(false)
+public class UpstreamConnectEvent extends Event {
+    @Label("Domain")
+    String domain;
+
+    @Label("IP")
+    @Description("Connected IP, or the domain when connecting by name")
+    String ip;
+
+    @Label("Port")
+    int port;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Connect Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long connectTime;
+
+    /**
+     * @param ip    连接的IP，直接按域名连接时为域名
+     * @param nanos 连接耗时（纳秒）
+     */
+    public static void emit(String domain, String ip, int port, boolean success, long nanos) {
+        UpstreamConnectEvent event = new UpstreamConnectEvent();
+        if (event.shouldCommit()) {
+            event.domain = domain;
+            event.ip = ip;
+            event.port = port;
+            event.success = success;
+            event.connectTime = nanos;
+            event.commit();
+        }
+    }
+}
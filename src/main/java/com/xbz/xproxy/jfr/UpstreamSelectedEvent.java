@@ -0,0 +1,67 @@
+package com.xbz.xproxy.jfr;
+
+import com.xbz.xproxy.pojo.DomainIPInfo;
+import jdk.jfr.*;
+
+/**
+ * 选定目标IP<br>
+ * 选择原因：<code>preferred</code>首选IP，<code>best</code>路由中排序第一的IP，
+ * <code>race</code>竞速连接中排序靠后的IP先连接成功，<code>direct</code>域名没有检测到IP，直接按域名连接
+ */
+@Name("xproxy.UpstreamSelected")
+@Label("Upstream Selected")
+@Category({"xproxy", "Connection"})
+@Description("The upstream IP chosen for a request and why it was chosen")
+@StackTrace(false)
+public class UpstreamSelectedEvent extends Event {
+    public static final String REASON_PREFERRED = "preferred";
+    public static final String REASON_BEST = "best";
+    public static final String REASON_RACE = "race";
+    public static final String REASON_DIRECT = "direct";
+
+    @Label("Domain")
+    String domain;
+
+    @Label("IP")
+    String ip;
+
+    @Label("Reason")
+    String reason;
+
+    @Label("Candidates")
+    @Description("Number of candidate IPs in the route")
+    int candidates;
+
+    @Label("Connect RTT EWMA")
+    @Description("Smoothed connect time of the selected IP in milliseconds, -1 if not measured")
+    double connectRttMillis;
+
+    @Label("Probe RTT")
+    @Description("Probed connect time of the selected IP in milliseconds, -1 if not probed")
+    double probeRttMillis;
+
+    /**
+     * @param selected   选定的IP，直接按域名连接时为空
+     * @param best       路由中排序第一的IP，没有路由时为空
+     * @param candidates 候选IP数
+     */
+    public static void emit(String domain, DomainIPInfo selected, DomainIPInfo best, int candidates) {
+        UpstreamSelectedEvent event = new UpstreamSelectedEvent();
+        if (event.shouldCommit()) {
+            event.domain = domain;
+            event.candidates = candidates;
+            if (selected == null) {
+                event.ip = domain;
+                event.reason = REASON_DIRECT;
+                event.connectRttMillis = -1;
+                event.probeRttMillis = -1;
+            } else {
+                event.ip = selected.getIp();
+                event.reason = selected.isPreferred() ? REASON_PREFERRED : selected == best ? REASON_BEST : REASON_RACE;
+                event.connectRttMillis = selected.getConnectRttEwmaMillis();
+                event.probeRttMillis = selected.getProbeRttMillis();
+            }
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.xbz.xproxy.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时直方图<br>
+ * 固定的桶上限，每个桶及总耗时各为一个{@link LongAdder}，多个eventLoop同时记录时分散到不同的计数单元，
+ * 记录只需一次桶查找与两次无锁累加；累计计数在导出时计算。
+ */
+public class Histogram {
+    /**
+     * 默认的桶上限（秒），覆盖本地连接到连接超时
+     */
+    public static final double[] DEFAULT_BOUNDS_SECONDS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    /**
+     * 桶上限（纳秒），与{@code boundsSeconds}一一对应
+     */
+    private final long[] boundsNanos;
+    private final double[] boundsSeconds;
+    /**
+     * 各桶的计数（非累计），最后一个为+Inf桶
+     */
+    private final LongAdder[] buckets;
+    private final LongAdder sumNanos = new LongAdder();
+
+    public Histogram() {
+        this(DEFAULT_BOUNDS_SECONDS);
+    }
+
+    /**
+     * @param boundsSeconds 桶上限（秒），从小到大
+     */
+    public Histogram(double[] boundsSeconds) {
+        this.boundsSeconds = boundsSeconds.clone();
+        this.boundsNanos = new long[boundsSeconds.length];
+        for (int i = 0; i < boundsSeconds.length; i++) {
+            boundsNanos[i] = (long) (boundsSeconds[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+        this.buckets = new LongAdder[boundsSeconds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos 耗时（纳秒）
+     */
+    public void record(long nanos) {
+        int index = 0;
+        while (index < boundsNanos.length && nanos > boundsNanos[index]) {
+            index++;
+        }
+        buckets[index].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * 以Prometheus文本格式输出，单位为秒
+     *
+     * @param name   指标名
+     * @param labels 其他标签，如<code>domain="github.com"</code>，没有时为空字符串
+     */
+    void write(StringBuilder sb, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            cumulative += buckets[i].sum();
+            String le = i < boundsSeconds.length ? Double.toString(boundsSeconds[i]) : "+Inf";
+            sb.append(name).append("_bucket{").append(prefix).append("le=\"").append(le).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+        sb.append(name).append("_sum").append(suffix)
+                .append(sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1)).append('\n');
+        sb.append(name).append("_count").append(suffix).append(cumulative).append('\n');
+    }
+}
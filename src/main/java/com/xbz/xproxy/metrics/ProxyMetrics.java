@@ -0,0 +1,183 @@
+package com.xbz.xproxy.metrics;
+
+import com.xbz.xproxy.DomainIpConvertor;
+import com.xbz.xproxy.pojo.ResolveFailureEnum;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 代理运行指标，通过代理自身地址的<code>/metrics</code>以Prometheus文本格式导出<br>
+ * 计数全部使用{@link LongAdder}，eventLoop中记录时不加锁、不分配对象（按域名、IP的指标首次出现时除外），
+ * 汇总只在导出时进行。按域名、IP区分的指标数量有上限，超出后计入<code>_other</code>，避免指标数量无限增长。<br>
+ * 转发字节数统计经过pipeline的数据，splice零拷贝隧道中的数据不经过JVM，不计入，开启splice的隧道数单独统计。
+ */
+public class ProxyMetrics {
+    /**
+     * 按域名、IP区分的指标的最大数量
+     */
+    private static final int MAX_LABELED_SERIES = 1000;
+    private static final String OTHER_LABEL = "_other";
+
+    private static final LongAdder CONNECT_REQUESTS = new LongAdder();
+    private static final LongAdder HTTP_REQUESTS = new LongAdder();
+    private static final LongAdder ACTIVE_TUNNELS = new LongAdder();
+    private static final LongAdder SPLICED_TUNNELS = new LongAdder();
+    private static final LongAdder UPSTREAM_CONNECTS = new LongAdder();
+    private static final LongAdder UPSTREAM_CONNECT_FAILURES = new LongAdder();
+    private static final LongAdder UPSTREAM_BYTES = new LongAdder();
+    private static final LongAdder DOWNSTREAM_BYTES = new LongAdder();
+    /**
+     * IP -> 连接失败次数
+     */
+    private static final Map<String, LongAdder> IP_CONNECT_FAILURES = new ConcurrentHashMap<>();
+    /**
+     * 域名 -> 目标连接耗时
+     */
+    private static final Map<String, Histogram> DOMAIN_CONNECT_LATENCY = new ConcurrentHashMap<>();
+    private static final Histogram REFRESH_DURATION = new Histogram(new double[]{0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120});
+
+    /**
+     * 收到CONNECT请求
+     */
+    public static void recordConnectRequest() {
+        CONNECT_REQUESTS.increment();
+    }
+
+    /**
+     * 收到普通http转发请求
+     */
+    public static void recordHttpRequest() {
+        HTTP_REQUESTS.increment();
+    }
+
+    /**
+     * CONNECT隧道建立
+     */
+    public static void recordTunnelOpened() {
+        ACTIVE_TUNNELS.increment();
+    }
+
+    /**
+     * CONNECT隧道关闭
+     */
+    public static void recordTunnelClosed() {
+        ACTIVE_TUNNELS.decrement();
+    }
+
+    /**
+     * CONNECT隧道开启splice零拷贝，之后的数据不计入转发字节数
+     */
+    public static void recordTunnelSpliced() {
+        SPLICED_TUNNELS.increment();
+    }
+
+    /**
+     * 新建目标连接成功
+     *
+     * @param domain 请求的域名
+     * @param nanos  连接耗时（纳秒）
+     */
+    public static void recordUpstreamConnect(String domain, long nanos) {
+        UPSTREAM_CONNECTS.increment();
+        Histogram histogram = DOMAIN_CONNECT_LATENCY.get(domain);
+        if (histogram == null) {
+            histogram = DOMAIN_CONNECT_LATENCY.computeIfAbsent(
+                    DOMAIN_CONNECT_LATENCY.size() < MAX_LABELED_SERIES ? domain : OTHER_LABEL, key -> new Histogram());
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * 新建目标连接失败
+     *
+     * @param ip 连接的IP，直接按域名连接时为域名
+     */
+    public static void recordUpstreamConnectFailure(String ip) {
+        UPSTREAM_CONNECT_FAILURES.increment();
+        LongAdder failures = IP_CONNECT_FAILURES.get(ip);
+        if (failures == null) {
+            failures = IP_CONNECT_FAILURES.computeIfAbsent(
+                    IP_CONNECT_FAILURES.size() < MAX_LABELED_SERIES ? ip : OTHER_LABEL, key -> new LongAdder());
+        }
+        failures.increment();
+    }
+
+    /**
+     * 客户端发往目标服务器的字节数
+     */
+    public static void recordUpstreamBytes(int bytes) {
+        UPSTREAM_BYTES.add(bytes);
+    }
+
+    /**
+     * 目标服务器发往客户端的字节数
+     */
+    public static void recordDownstreamBytes(int bytes) {
+        DOWNSTREAM_BYTES.add(bytes);
+    }
+
+    /**
+     * 一轮域名IP检测完成
+     *
+     * @param nanos 耗时（纳秒）
+     */
+    public static void recordRefresh(long nanos) {
+        REFRESH_DURATION.record(nanos);
+    }
+
+    /**
+     * 以Prometheus文本格式（0.0.4）输出所有指标
+     */
+    public static String toPrometheusText() {
+        StringBuilder sb = new StringBuilder(4096);
+        writeHeader(sb, "xproxy_requests_total", "counter", "Client requests received by type.");
+        sb.append("xproxy_requests_total{type=\"connect\"} ").append(CONNECT_REQUESTS.sum()).append('\n');
+        sb.append("xproxy_requests_total{type=\"http\"} ").append(HTTP_REQUESTS.sum()).append('\n');
+        writeHeader(sb, "xproxy_active_tunnels", "gauge", "CONNECT tunnels currently open.");
+        sb.append("xproxy_active_tunnels ").append(ACTIVE_TUNNELS.sum()).append('\n');
+        writeHeader(sb, "xproxy_spliced_tunnels_total", "counter", "CONNECT tunnels switched to splice, their bytes are not in xproxy_relay_bytes_total.");
+        sb.append("xproxy_spliced_tunnels_total ").append(SPLICED_TUNNELS.sum()).append('\n');
+        writeHeader(sb, "xproxy_upstream_connects_total", "counter", "Upstream connection attempts by result.");
+        sb.append("xproxy_upstream_connects_total{result=\"success\"} ").append(UPSTREAM_CONNECTS.sum()).append('\n');
+        sb.append("xproxy_upstream_connects_total{result=\"failure\"} ").append(UPSTREAM_CONNECT_FAILURES.sum()).append('\n');
+        writeHeader(sb, "xproxy_upstream_connect_failures_total", "counter", "Failed upstream connections by IP.");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(IP_CONNECT_FAILURES).entrySet()) {
+            sb.append("xproxy_upstream_connect_failures_total{ip=\"").append(escape(entry.getKey())).append("\"} ")
+                    .append(entry.getValue().sum()).append('\n');
+        }
+        writeHeader(sb, "xproxy_relay_bytes_total", "counter", "Bytes relayed through the pipeline by direction, spliced tunnel data excluded.");
+        sb.append("xproxy_relay_bytes_total{direction=\"upstream\",path=\"pipeline\"} ").append(UPSTREAM_BYTES.sum()).append('\n');
+        sb.append("xproxy_relay_bytes_total{direction=\"downstream\",path=\"pipeline\"} ").append(DOWNSTREAM_BYTES.sum()).append('\n');
+        writeHeader(sb, "xproxy_upstream_connect_seconds", "histogram", "Upstream TCP connect latency by domain.");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(DOMAIN_CONNECT_LATENCY).entrySet()) {
+            entry.getValue().write(sb, "xproxy_upstream_connect_seconds", "domain=\"" + escape(entry.getKey()) + "\"");
+        }
+        writeHeader(sb, "xproxy_unresolved_domains", "gauge", "Proxied domains without a usable IP by last failure reason.");
+        Map<ResolveFailureEnum, Integer> unresolvedCounts = DomainIpConvertor.countUnresolvedDomains();
+        for (ResolveFailureEnum failure : ResolveFailureEnum.values()) {
+            sb.append("xproxy_unresolved_domains{reason=\"").append(failure.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                    .append(unresolvedCounts.getOrDefault(failure, 0)).append('\n');
+        }
+        // 检测过程异常，没有失败原因
+        sb.append("xproxy_unresolved_domains{reason=\"error\"} ").append(unresolvedCounts.getOrDefault(null, 0)).append('\n');
+        writeHeader(sb, "xproxy_refresh_duration_seconds", "histogram", "Domain IP refresh cycle duration.");
+        REFRESH_DURATION.write(sb, "xproxy_refresh_duration_seconds", "");
+        return sb.toString();
+    }
+
+    private static void writeHeader(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * 标签值转义：反斜杠、双引号与换行
+     */
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -1,10 +1,17 @@
 package com.xbz.xproxy.netty;
 
+import com.xbz.xproxy.metrics.ProxyMetrics;
 import com.xbz.xproxy.pojo.DomainIPInfo;
+import com.xbz.xproxy.util.HttpUtils;
+import com.xbz.xproxy.util.ProxyUtils;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelFuture;
-import io.netty.handler.codec.http.HttpObject;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.epoll.AbstractEpollStreamChannel;
+import io.netty.handler.codec.http.*;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
 import lombok.Getter;
 
 import java.util.ArrayList;
@@ -13,43 +20,316 @@ import java.util.Objects;
 
 public class ClientChannelContext {
     private String originHost;
+    @Getter
     private DomainIPInfo targetIpInfo;
+    /**
+     * CONNECT隧道的目标连接建立结果，普通http转发（连接池借出）时为空
+     */
+    @Getter
+    private final Future<Channel> connectFuture;
     @Getter
-    private final ChannelFuture connectFuture;
     private final Channel clientChannel;
-    private final Channel targetChannel;
+    /**
+     * 目标连接，普通http转发时在连接池借出后绑定，响应结束归还后解除
+     */
+    private Channel targetChannel;
     private final List<Object> pendingData = new ArrayList<>();
+    /**
+     * 普通http转发使用的目标连接池
+     */
+    private final UpstreamChannelPool upstreamPool;
+    /**
+     * 请求是否已完整发送给目标服务器，未完整发送的连接不能归还连接池
+     */
+    private boolean requestComplete = false;
+    /**
+     * 目标连接是否已归还或关闭，之后到达的请求数据直接丢弃
+     */
+    private boolean targetReleased = false;
+    /**
+     * 当前请求的方法，HEAD请求的响应没有响应体
+     */
+    @Getter
+    private HttpMethod requestMethod;
+    /**
+     * 当前请求的协议版本，决定回写客户端的Connection头
+     */
+    private HttpVersion requestVersion;
+    /**
+     * 客户端是否希望保持连接
+     */
+    private boolean clientKeepAlive = true;
+    /**
+     * 当前响应结束后客户端连接是否保持，由请求与响应共同决定
+     */
+    private boolean responseKeepAlive = true;
+    /**
+     * 当前请求的响应是否已完整写回客户端
+     */
+    @Getter
+    private boolean responseComplete = false;
+    /**
+     * 是否已开启splice零拷贝隧道
+     */
+    @Getter
+    private boolean spliced = false;
+    /**
+     * 经过pipeline转发给目标服务器的字节数
+     */
+    @Getter
+    private long upstreamBytes = 0;
 
-    public ClientChannelContext(String originHost,DomainIPInfo targetIpInfo,Channel clientChannel, ChannelFuture connectFuture) {
+    /**
+     * CONNECT隧道，目标连接建立（竞速胜出）后通过{@link #bindTunnelTarget(Channel, DomainIPInfo)}绑定
+     */
+    public ClientChannelContext(String originHost, Channel clientChannel, Future<Channel> connectFuture) {
         this.originHost = originHost;
-        this.targetIpInfo = targetIpInfo;
         this.clientChannel = clientChannel;
         this.connectFuture = connectFuture;
-        this.targetChannel = connectFuture.channel();
+        this.upstreamPool = null;
+    }
+
+    /**
+     * 绑定CONNECT隧道的目标连接
+     *
+     * @param targetIpInfo 实际连接的IP，直接按域名连接时为空
+     */
+    public void bindTunnelTarget(Channel channel, DomainIPInfo targetIpInfo) {
+        this.targetChannel = channel;
+        this.targetIpInfo = targetIpInfo;
+    }
+
+    /**
+     * 普通http转发，目标连接由连接池借出后通过{@link #bindTarget(Channel)}绑定
+     */
+    public ClientChannelContext(String originHost, DomainIPInfo targetIpInfo, Channel clientChannel, UpstreamChannelPool upstreamPool) {
+        this.originHost = originHost;
+        this.targetIpInfo = targetIpInfo;
+        this.clientChannel = clientChannel;
+        this.connectFuture = null;
+        this.upstreamPool = upstreamPool;
+    }
+
+    /**
+     * 是否为CONNECT隧道
+     */
+    public boolean isTunnel() {
+        return connectFuture != null;
     }
 
     public boolean isTargetConnected() {
-        return targetChannel.isActive();
+        return targetChannel != null && targetChannel.isActive();
+    }
+
+    /**
+     * 目标channel写缓冲是否低于高水位，未绑定目标连接时视为可写
+     */
+    public boolean isTargetWritable() {
+        return targetChannel == null || targetChannel.isWritable();
+    }
+
+    /**
+     * 记录请求信息，并将代理请求改写为发给目标服务器的请求：
+     * 绝对URI改为origin-form，移除逐跳头部，与目标服务器之间按连接池配置声明keep-alive
+     *
+     * @param upstreamKeepAlive 是否与目标服务器保持连接
+     */
+    public void prepareRequest(HttpRequest request, boolean upstreamKeepAlive) {
+        this.requestMethod = request.method();
+        this.requestVersion = request.protocolVersion();
+        this.clientKeepAlive = HttpUtils.isClientKeepAlive(request);
+        request.setUri(HttpUtils.toOriginForm(request.uri()));
+        HttpUtils.removeHopByHopHeaders(request.headers());
+        HttpUtil.setKeepAlive(request.headers(), request.protocolVersion(), upstreamKeepAlive);
+    }
+
+    /**
+     * 改写目标服务器的响应头后再转发给客户端：移除逐跳头部，按客户端连接是否保持重新设置Connection
+     *
+     * @param framed 响应体是否有明确边界（Content-Length、chunked或无响应体），
+     *               没有边界的响应体以关闭连接结束，客户端连接无法保持
+     */
+    public void prepareResponse(HttpResponse response, boolean framed) {
+        HttpUtils.removeHopByHopHeaders(response.headers());
+        if (HttpMethod.HEAD.equals(requestMethod)) {
+            // HEAD响应没有响应体，去掉chunked避免响应编码器写出结束块
+            HttpUtil.setTransferEncodingChunked(response, false);
+        }
+        responseKeepAlive = clientKeepAlive && framed;
+        HttpUtil.setKeepAlive(response.headers(), requestVersion, responseKeepAlive);
+    }
+
+    /**
+     * 响应已完整写回客户端：解除目标连接绑定，客户端连接保持时通知继续处理后续请求，否则关闭客户端连接
+     *
+     * @param upstreamReusable 目标连接是否可以归还连接池
+     */
+    public void completeResponse(boolean upstreamReusable) {
+        releaseTarget(upstreamReusable);
+        responseComplete = true;
+        if (responseKeepAlive) {
+            clientChannel.pipeline().fireUserEventTriggered(HttpResponseCompleteEvent.INSTANCE);
+        } else {
+            ProxyUtils.closeOnFlush(clientChannel);
+        }
+    }
+
+    /**
+     * 绑定连接池借出的目标连接，目标服务器的响应由{@link ProxyHttpBackendHandler}转发给客户端
+     */
+    public void bindTarget(Channel channel) {
+        this.targetChannel = channel;
+        channel.attr(ProxyHttpBackendHandler.BOUND_CLIENT_CTX_KEY).set(this);
+    }
+
+    /**
+     * 目标服务器响应结束，解除与目标连接的绑定：请求已完整发送且连接允许keep-alive时归还连接池，否则关闭
+     */
+    public void releaseTarget(boolean reusable) {
+        Channel channel = targetChannel;
+        if (channel == null) {
+            return;
+        }
+        targetChannel = null;
+        targetReleased = true;
+        channel.attr(ProxyHttpBackendHandler.BOUND_CLIENT_CTX_KEY).set(null);
+        if (reusable && requestComplete && upstreamPool != null) {
+            upstreamPool.release(channel);
+        } else {
+            channel.close();
+        }
     }
 
     public void addPendingData(HttpObject obj) {
-        pendingData.add(obj);
+        // 调用方读取完成后会释放消息，暂存期间需要持有引用
+        pendingData.add(ReferenceCountUtil.retain(obj));
     }
 
     public void flushPendingData() {
         for (Object obj : pendingData) {
             forwardToTarget(obj);
+            ReferenceCountUtil.release(obj);
+        }
+        pendingData.clear();
+    }
+
+    /**
+     * 释放尚未转发的暂存数据
+     */
+    public void releasePendingData() {
+        for (Object obj : pendingData) {
+            ReferenceCountUtil.release(obj);
         }
         pendingData.clear();
     }
 
+    /**
+     * 普通http转发的请求体：目标连接已绑定时直接转发，仍在借出中时暂存，目标连接已归还时丢弃
+     */
+    public void forwardHttpContent(HttpContent content) {
+        if (targetChannel != null) {
+            forwardToTarget(content);
+        } else if (!targetReleased) {
+            addPendingData(content);
+        }
+    }
+
     public void forwardToTarget(Object obj) {
-        targetChannel.writeAndFlush(ReferenceCountUtil.retain(obj));
+        if (obj instanceof LastHttpContent) {
+            requestComplete = true;
+        }
+        recordUpstreamBytes(obj);
+        // 目标channel可写后由ProxyBackendHandler或ProxyHttpBackendHandler恢复读取客户端
+        ProxyUtils.writeWithBackpressure(clientChannel, targetChannel, ReferenceCountUtil.retain(obj), true);
+    }
+
+    /**
+     * 只写入不flush，由调用方在一轮读取完成后调用{@link #flushTarget()}统一flush
+     */
+    public void writeToTarget(Object obj) {
+        recordUpstreamBytes(obj);
+        ProxyUtils.writeWithBackpressure(clientChannel, targetChannel, ReferenceCountUtil.retain(obj), false);
+    }
+
+    private void recordUpstreamBytes(Object obj) {
+        int bytes;
+        if (obj instanceof ByteBuf buf) {
+            bytes = buf.readableBytes();
+        } else if (obj instanceof HttpContent content) {
+            bytes = content.content().readableBytes();
+        } else {
+            return;
+        }
+        upstreamBytes += bytes;
+        ProxyMetrics.recordUpstreamBytes(bytes);
+    }
+
+    public void flushTarget() {
+        if (targetChannel != null) {
+            targetChannel.flush();
+        }
+    }
+
+    /**
+     * 客户端channel写缓冲回落到低水位以下后，恢复读取目标服务器数据
+     */
+    public void resumeTargetRead() {
+        if (targetChannel != null && targetChannel.isActive() && !targetChannel.config().isAutoRead()) {
+            targetChannel.config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * 尝试开启splice(2)零拷贝隧道，数据在内核中直接从一个socket搬运到另一个socket，不再经过JVM堆内存/直接内存<br>
+     * 仅epoll传输层且两端channel位于同一eventLoop时可用，调用前需已完成pendingData的转发
+     *
+     * @return 是否开启成功，失败时继续使用pipeline拷贝转发
+     */
+    public boolean spliceTunnel() {
+        if (!(clientChannel instanceof AbstractEpollStreamChannel client)
+                || !(targetChannel instanceof AbstractEpollStreamChannel target)) {
+            return false;
+        }
+        if (client.eventLoop() != target.eventLoop()) {
+            return false;
+        }
+        // 开启半关闭，由SpliceDrainHandler在收到FIN时转发接收缓冲区中的剩余数据后再关闭对端
+        client.config().setOption(ChannelOption.ALLOW_HALF_CLOSURE, true);
+        target.config().setOption(ChannelOption.ALLOW_HALF_CLOSURE, true);
+        client.pipeline().addFirst(new SpliceDrainHandler(target));
+        target.pipeline().addFirst(new SpliceDrainHandler(client));
+        // len为Integer.MAX_VALUE时持续splice，直到任意一端关闭导致future失败
+        ChannelFutureListener closeOnFailure = future -> {
+            if (!future.isSuccess()) {
+                ProxyUtils.closeOnFlush(clientChannel);
+                ProxyUtils.closeOnFlush(targetChannel);
+            }
+        };
+        client.spliceTo(target, Integer.MAX_VALUE).addListener(closeOnFailure);
+        target.spliceTo(client, Integer.MAX_VALUE).addListener(closeOnFailure);
+        spliced = true;
+        ProxyMetrics.recordTunnelSpliced();
+        return true;
     }
 
     public void closeTargetChannel() {
+        releasePendingData();
+        if (connectFuture != null && !connectFuture.isDone()) {
+            // 终止仍在进行中的连接
+            connectFuture.cancel(false);
+        }
         if (targetChannel != null && targetChannel.isActive()) {
             targetChannel.close();
         }
     }
+
+    /**
+     * 转发完写缓冲中剩余数据后关闭目标channel
+     */
+    public void closeTargetChannelOnFlush() {
+        releasePendingData();
+        if (targetChannel != null) {
+            ProxyUtils.closeOnFlush(targetChannel);
+        }
+    }
 }
\ No newline at end of file
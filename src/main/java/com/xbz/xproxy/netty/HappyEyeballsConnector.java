@@ -0,0 +1,163 @@
+package com.xbz.xproxy.netty;
+
+import com.xbz.xproxy.DomainIpConvertor;
+import com.xbz.xproxy.jfr.UpstreamConnectEvent;
+import com.xbz.xproxy.metrics.ProxyMetrics;
+import com.xbz.xproxy.pojo.DomainIPInfo;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.*;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多候选IP竞速连接（Happy Eyeballs，参考RFC 8305）<br>
+ * 先连接排序最靠前的候选IP，每隔{@code staggerMillis}未成功则追加连接下一个候选IP，某个连接失败时立即开始下一个；
+ * 第一个连接成功的IP胜出，其余连接取消或关闭。单个不可达（黑洞）IP最多只延迟一个错开间隔，而不是整个连接超时。<br>
+ * 竞速期间连接不安装业务handler，胜出后才添加{@code targetHandler}，失败方关闭时不会影响客户端连接。
+ * 所有操作都在{@code eventLoop}中执行。
+ */
+public class HappyEyeballsConnector {
+    /**
+     * 竞速期间的空pipeline，ChannelInitializer可共享
+     */
+    private static final ChannelHandler EMPTY_INITIALIZER = new ChannelInitializer<Channel>() {
+        @Override
+        protected void initChannel(Channel ch) {
+        }
+    };
+
+    private final EventLoop eventLoop;
+    private final Bootstrap bootstrap;
+    private final ChannelHandler targetHandler;
+    /**
+     * 按优先级排序的候选IP，为空时直接连接{@code host}；与路由共享，不可修改
+     */
+    private final DomainIPInfo[] candidates;
+    /**
+     * 最多连接的候选IP数，不竞速时为1
+     */
+    private final int candidateLimit;
+    private final String host;
+    private final int port;
+    /**
+     * 追加下一个连接的间隔（毫秒），为0时不竞速，只连接第一个候选IP
+     */
+    private final long staggerMillis;
+    private final Promise<Channel> promise;
+    private final List<ChannelFuture> attempts = new ArrayList<>();
+    private int nextIndex = 0;
+    private int failedCount = 0;
+    private ScheduledFuture<?> staggerFuture;
+    /**
+     * 胜出的候选IP，直接连接host时为空
+     */
+    @Getter
+    private DomainIPInfo winner;
+
+    public HappyEyeballsConnector(EventLoop eventLoop, Bootstrap bootstrap, ChannelHandler targetHandler,
+                                  DomainIPInfo[] candidates, String host, int port, long staggerMillis) {
+        this.eventLoop = eventLoop;
+        this.bootstrap = bootstrap.clone().group(eventLoop).handler(EMPTY_INITIALIZER);
+        this.targetHandler = targetHandler;
+        this.candidates = candidates;
+        this.candidateLimit = staggerMillis > 0 ? candidates.length : Math.min(candidates.length, 1);
+        this.host = host;
+        this.port = port;
+        this.staggerMillis = staggerMillis;
+        this.promise = eventLoop.newPromise();
+    }
+
+    /**
+     * 开始连接，需在{@code eventLoop}中调用。返回的future被取消时终止所有进行中的连接
+     */
+    public Future<Channel> connect() {
+        promise.addListener(future -> {
+            if (!future.isSuccess()) {
+                cancelAttempts(null);
+            }
+        });
+        startNextAttempt();
+        return promise;
+    }
+
+    private int attemptCount() {
+        return candidateLimit == 0 ? 1 : candidateLimit;
+    }
+
+    private void startNextAttempt() {
+        if (promise.isDone() || nextIndex >= attemptCount()) {
+            return;
+        }
+        DomainIPInfo ipInfo = candidateLimit == 0 ? null : candidates[nextIndex];
+        nextIndex++;
+        // 先安排下一个连接再发起连接：连接可能同步失败并立即开始下一个
+        if (nextIndex < attemptCount()) {
+            staggerFuture = eventLoop.schedule(this::startNextAttempt, staggerMillis, TimeUnit.MILLISECONDS);
+        }
+        long startNanos = System.nanoTime();
+        ChannelFuture attempt = bootstrap.connect(ipInfo != null ? ipInfo.getIp() : host, port);
+        attempts.add(attempt);
+        attempt.addListener((ChannelFutureListener) future -> onAttemptComplete(ipInfo, future, System.nanoTime() - startNanos));
+    }
+
+    private void onAttemptComplete(DomainIPInfo ipInfo, ChannelFuture future, long elapsedNanos) {
+        if (future.isSuccess()) {
+            Channel channel = future.channel();
+            // 较慢的连接同样是有效的耗时样本
+            ProxyMetrics.recordUpstreamConnect(host, elapsedNanos);
+            UpstreamConnectEvent.emit(host, ipInfo != null ? ipInfo.getIp() : host, port, true, elapsedNanos);
+            if (ipInfo != null) {
+                DomainIpConvertor.recordConnectSuccess(ipInfo, elapsedNanos);
+            }
+            if (promise.isDone()) {
+                // 竞速已有结果，关闭较慢的连接
+                channel.close();
+                return;
+            }
+            winner = ipInfo;
+            channel.pipeline().addLast(targetHandler);
+            cancelAttempts(future);
+            promise.trySuccess(channel);
+            return;
+        }
+        if (future.isCancelled()) {
+            // 竞速结束后被取消的连接，不计入失败
+            return;
+        }
+        ProxyMetrics.recordUpstreamConnectFailure(ipInfo != null ? ipInfo.getIp() : host);
+        UpstreamConnectEvent.emit(host, ipInfo != null ? ipInfo.getIp() : host, port, false, elapsedNanos);
+        if (ipInfo != null) {
+            DomainIpConvertor.recordConnectFailure(ipInfo);
+        }
+        failedCount++;
+        if (failedCount >= attemptCount()) {
+            promise.tryFailure(future.cause());
+        } else if (staggerFuture != null && staggerFuture.cancel(false)) {
+            // 当前连接失败，不必等待错开间隔，立即连接下一个候选IP
+            startNextAttempt();
+        }
+    }
+
+    /**
+     * 取消定时任务及除胜出连接外的所有连接
+     */
+    private void cancelAttempts(ChannelFuture winnerFuture) {
+        if (staggerFuture != null) {
+            staggerFuture.cancel(false);
+        }
+        for (ChannelFuture attempt : attempts) {
+            if (attempt == winnerFuture) {
+                continue;
+            }
+            if (!attempt.cancel(false) && attempt.isSuccess()) {
+                attempt.channel().close();
+            }
+        }
+    }
+}
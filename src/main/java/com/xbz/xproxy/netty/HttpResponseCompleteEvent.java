@@ -0,0 +1,12 @@
+package com.xbz.xproxy.netty;
+
+/**
+ * 普通http转发中一次请求的响应已完整写回客户端且客户端连接保持，
+ * 在客户端pipeline上触发，由{@link ProxyFrontendConnectHandler}继续处理暂存的后续请求
+ */
+public final class HttpResponseCompleteEvent {
+    public static final HttpResponseCompleteEvent INSTANCE = new HttpResponseCompleteEvent();
+
+    private HttpResponseCompleteEvent() {
+    }
+}
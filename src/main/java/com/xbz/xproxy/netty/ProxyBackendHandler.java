@@ -1,22 +1,58 @@
 package com.xbz.xproxy.netty;
 
+import com.xbz.xproxy.metrics.ProxyMetrics;
 import com.xbz.xproxy.util.ProxyUtils;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import lombok.Getter;
 
 public class ProxyBackendHandler extends SimpleChannelInboundHandler<ByteBuf> {
 
     private final Channel inboundChannel;
+    /**
+     * 是否合并flush：转发给客户端的隧道数据在channelReadComplete中统一flush
+     */
+    private final boolean flushConsolidation;
+    /**
+     * 转发给客户端的字节数，只在eventLoop中访问
+     */
+    @Getter
+    private long relayedBytes = 0;
 
     public ProxyBackendHandler(Channel inboundChannel) {
+        this(inboundChannel, false);
+    }
+
+    public ProxyBackendHandler(Channel inboundChannel, boolean flushConsolidation) {
         this.inboundChannel = inboundChannel;
+        this.flushConsolidation = flushConsolidation;
     }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
-        inboundChannel.writeAndFlush(msg.retain());
+        relayedBytes += msg.readableBytes();
+        ProxyMetrics.recordDownstreamBytes(msg.readableBytes());
+        // 客户端channel可写后由ProxyFrontendTransferHandler恢复读取目标服务器
+        ProxyUtils.writeWithBackpressure(ctx.channel(), inboundChannel, msg.retain(), !flushConsolidation);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        if (flushConsolidation) {
+            inboundChannel.flush();
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // 目标channel写缓冲回落到低水位以下，恢复读取客户端数据
+        if (ctx.channel().isWritable() && inboundChannel.isActive()) {
+            inboundChannel.config().setAutoRead(true);
+        }
+        ctx.fireChannelWritabilityChanged();
     }
 
     @Override
@@ -1,33 +1,153 @@
 package com.xbz.xproxy.netty;
 
+import com.xbz.xproxy.DomainIpConvertor;
 import com.xbz.xproxy.ProxyServerApplication;
+import com.xbz.xproxy.jfr.ConnectReceivedEvent;
+import com.xbz.xproxy.jfr.TunnelEvent;
+import com.xbz.xproxy.jfr.UpstreamConnectEvent;
+import com.xbz.xproxy.jfr.UpstreamSelectedEvent;
+import com.xbz.xproxy.metrics.ProxyMetrics;
 import com.xbz.xproxy.pojo.DomainIPInfo;
+import com.xbz.xproxy.pojo.DomainRoute;
+import com.xbz.xproxy.pojo.ProxyServerConfig;
 import com.xbz.xproxy.util.HttpUtils;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.*;
 import io.netty.handler.codec.http.*;
+import io.netty.resolver.AddressResolverGroup;
 import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
 
+import java.net.ConnectException;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
-import java.util.StringTokenizer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
 
-import static com.xbz.xproxy.DomainIpConvertor.getDomainIPBy;
-import static com.xbz.xproxy.DomainIpConvertor.getRealAvailableIpInfo;
+import static com.xbz.xproxy.DomainIpConvertor.getDomainRoute;
 
 public class ProxyFrontendConnectHandler extends SimpleChannelInboundHandler<HttpObject> {
 
     public static final AttributeKey<ClientChannelContext> CLIENT_CTX_KEY =
             AttributeKey.newInstance("clientChannelContext");
+    /**
+     * 未检测到IP的域名的候选IP
+     */
+    private static final DomainIPInfo[] NO_CANDIDATES = new DomainIPInfo[0];
+    /**
+     * 暂存消息数上限：客户端在响应未结束时持续发送请求或大请求体，超过上限后关闭连接，避免无限占用内存
+     */
+    static final int MAX_QUEUED_MESSAGES = 256;
 
+    private final ProxyServerConfig config;
+    private final UpstreamChannelPool upstreamPool;
+    private final AddressResolverGroup<InetSocketAddress> resolverGroup;
     // 当前是否是本地请求
     private boolean isLocalRequest = false;
     // 用于拼接完整请求
     private FullHttpRequest fullHttpRequest = null;
+    /**
+     * 上一个请求的响应尚未结束时到达的后续请求（HTTP管线化），响应结束后按顺序处理
+     */
+    private final Deque<HttpObject> queuedMessages = new ArrayDeque<>();
+    /**
+     * 是否正在等待目标域名的按需检测，检测完成前后续消息进入队列
+     */
+    private boolean awaitingRoute = false;
+
+    public ProxyFrontendConnectHandler(ProxyServerConfig config, UpstreamChannelPool upstreamPool,
+                                       AddressResolverGroup<InetSocketAddress> resolverGroup) {
+        this.config = config;
+        this.upstreamPool = upstreamPool;
+        this.resolverGroup = resolverGroup;
+    }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+        if (awaitingRoute || !queuedMessages.isEmpty() || (msg instanceof HttpRequest && isResponsePending(ctx))) {
+            if (queuedMessages.size() >= MAX_QUEUED_MESSAGES) {
+                System.err.println("暂存消息超过" + MAX_QUEUED_MESSAGES + "条，关闭客户端连接：" + ctx.channel().remoteAddress());
+                releaseQueuedMessages();
+                ctx.close();
+                return;
+            }
+            // 暂停读取，已解码出的消息继续进入队列
+            ctx.channel().config().setAutoRead(false);
+            queuedMessages.add(ReferenceCountUtil.retain(msg));
+            return;
+        }
+        handleHttpObject(ctx, msg);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof HttpResponseCompleteEvent) {
+            processQueuedMessages(ctx);
+            return;
+        }
+        if (evt instanceof UpstreamWritableEvent) {
+            resumeReadIfIdle(ctx);
+            return;
+        }
+        ctx.fireUserEventTriggered(evt);
+    }
+
+    /**
+     * 上一个请求的响应结束后，依次处理暂存的请求，遇到下一个需要等待响应的请求时停止
+     */
+    private void processQueuedMessages(ChannelHandlerContext ctx) throws Exception {
+        while (!queuedMessages.isEmpty()) {
+            if (awaitingRoute) {
+                return;
+            }
+            HttpObject msg = queuedMessages.peek();
+            if (msg instanceof HttpRequest && isResponsePending(ctx)) {
+                return;
+            }
+            queuedMessages.poll();
+            try {
+                handleHttpObject(ctx, msg);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+        resumeReadIfIdle(ctx);
+    }
+
+    /**
+     * 没有等待中的按需检测和暂存消息、且目标channel可写时恢复读取客户端数据；
+     * 客户端autoRead只由此处恢复，避免目标可写事件覆盖等待检测或管线化时的暂停
+     */
+    private void resumeReadIfIdle(ChannelHandlerContext ctx) {
+        if (awaitingRoute || !queuedMessages.isEmpty() || !ctx.channel().isActive()) {
+            return;
+        }
+        ClientChannelContext clientCtx = ctx.channel().attr(CLIENT_CTX_KEY).get();
+        if (clientCtx == null || clientCtx.isTargetWritable()) {
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    /**
+     * 当前连接上是否有普通http请求的响应尚未写回客户端
+     */
+    private boolean isResponsePending(ChannelHandlerContext ctx) {
+        ClientChannelContext clientCtx = ctx.channel().attr(CLIENT_CTX_KEY).get();
+        return clientCtx != null && !clientCtx.isTunnel() && !clientCtx.isResponseComplete();
+    }
+
+    private void releaseQueuedMessages() {
+        for (HttpObject msg : queuedMessages) {
+            ReferenceCountUtil.release(msg);
+        }
+        queuedMessages.clear();
+    }
+
+    private void handleHttpObject(ChannelHandlerContext ctx, HttpObject msg) {
         try {
             ClientChannelContext clientCtx = ctx.channel().attr(CLIENT_CTX_KEY).get();
             if (msg instanceof HttpRequest request) {
@@ -37,9 +157,8 @@ public class ProxyFrontendConnectHandler extends SimpleChannelInboundHandler<Htt
                     return;
                 }
 
-                StringTokenizer tokenizer = new StringTokenizer(host, ":");
-                String hostName = tokenizer.nextToken();
-                int port = tokenizer.hasMoreTokens() ? Integer.parseInt(tokenizer.nextToken()) : 80;
+                String hostName = HttpUtils.getHost(host);
+                int port = HttpUtils.getPort(host, 80);
 
                 // 判断是否是发给本代理服务器的请求
                 if (isLocalRequest(hostName, port)) {
@@ -67,6 +186,10 @@ public class ProxyFrontendConnectHandler extends SimpleChannelInboundHandler<Htt
                 } else {
                     isLocalRequest = false;
 
+                    // 代理域名尚未检测到IP时，先等待按需检测完成
+                    if (awaitRoute(ctx, request, hostName)) {
+                        return;
+                    }
                     // CONNECT 方法处理 HTTPS 隧道
                     if (HttpMethod.CONNECT.equals(request.method())) {
                         handleConnect(ctx, request);
@@ -88,30 +211,37 @@ public class ProxyFrontendConnectHandler extends SimpleChannelInboundHandler<Htt
                         }
                     }
                 } else {
-                    if (clientCtx != null) {
+                    if (clientCtx != null && !clientCtx.isTunnel()) {
+                        // 普通http请求体
+                        clientCtx.forwardHttpContent(httpContent);
+                    } else if (clientCtx != null) {
                         if (!clientCtx.isTargetConnected()) {
-                            ChannelFuture connectFuture = clientCtx.getConnectFuture();
+                            Future<Channel> connectFuture = clientCtx.getConnectFuture();
                             if (httpContent instanceof LastHttpContent) {
-                                connectFuture.addListener((ChannelFutureListener) future -> {
+                                connectFuture.addListener((FutureListener<Channel>) future -> {
                                     try {
                                         if (future.isSuccess()) {
                                             if (ctx.channel().isActive()) {
                                                 // 浏览器发送CONNECT 成功响应
                                                 ChannelPipeline pipeline = ctx.pipeline();
                                                 pipeline.remove(SimpleNettySocketHttpProxy.CHANNEL_HANDLER_HTTP_REQUEST_DECODER);
+                                                pipeline.remove(SimpleNettySocketHttpProxy.CHANNEL_HANDLER_HTTP_RESPONSE_ENCODER);
                                                 pipeline.remove(SimpleNettySocketHttpProxy.CHANNEL_HANDLER_PROXY_FRONTEND_CONNECT);
                                             }
                                             // 响应客户端 CONNECT 成功
-                                            try {
-                                                ctx.writeAndFlush(Unpooled.copiedBuffer(
-                                                        "HTTP/1.1 200 Connection Established\r\n\r\n",
-                                                        StandardCharsets.US_ASCII)).sync();
-                                            } catch (InterruptedException e) {
-
-                                            }
+                                            // 监听器运行在eventLoop中，不能同步等待写出完成（io_uring等异步写出的传输层会抛出BlockingOperationException）
+                                            ctx.writeAndFlush(Unpooled.copiedBuffer(
+                                                    "HTTP/1.1 200 Connection Established\r\n\r\n",
+                                                    StandardCharsets.US_ASCII));
+                                            ProxyMetrics.recordTunnelOpened();
+                                            ctx.channel().closeFuture().addListener(closeFuture -> ProxyMetrics.recordTunnelClosed());
                                             ctx.channel().config().setAutoRead(true);
-                                            future.channel().config().setAutoRead(true);
+                                            future.getNow().config().setAutoRead(true);
                                             clientCtx.flushPendingData();
+                                            // 隧道建立后优先使用splice零拷贝，不可用时继续走pipeline拷贝转发
+                                            if (config.isSplice()) {
+                                                clientCtx.spliceTunnel();
+                                            }
                                         } else {
                                             HttpUtils.sendError(ctx, HttpResponseStatus.BAD_GATEWAY);
                                             ctx.close();
@@ -133,93 +263,176 @@ public class ProxyFrontendConnectHandler extends SimpleChannelInboundHandler<Htt
         }
     }
 
+    /**
+     * 目标域名匹配代理规则但还没有路由时，暂停读取并等待按需检测，检测完成后在eventLoop中重新处理此请求及其后的消息；
+     * 同一域名的并发请求共用同一次检测
+     *
+     * @return 需要等待时返回true，请求已暂存
+     */
+    private boolean awaitRoute(ChannelHandlerContext ctx, HttpRequest request, String hostName) {
+        String host = HttpMethod.CONNECT.equals(request.method()) ? HttpUtils.getHost(request.uri()) : hostName;
+        if (getDomainRoute(host) != null) {
+            return false;
+        }
+        CompletableFuture<DomainRoute> resolveFuture = DomainIpConvertor.resolveOnDemand(host);
+        if (resolveFuture == null) {
+            return false;
+        }
+        awaitingRoute = true;
+        ctx.channel().config().setAutoRead(false);
+        queuedMessages.addFirst(ReferenceCountUtil.retain(request));
+        EventLoop eventLoop = ctx.channel().eventLoop();
+        resolveFuture.whenComplete((route, e) -> eventLoop.execute(() -> {
+            awaitingRoute = false;
+            try {
+                processQueuedMessages(ctx);
+            } catch (Exception ex) {
+                ex.printStackTrace(System.err);
+            }
+        }));
+        return true;
+    }
+
     // 判断是否是发送给本代理服务器的请求
     private boolean isLocalRequest(String hostName, int port) {
-        return ProxyServerApplication.httpProxy.isProxySelf(hostName, port);
+        // 未通过ProxyServerApplication启动（如基准测试中单独使用handler）时没有代理自身地址
+        SimpleNettySocketHttpProxy httpProxy = ProxyServerApplication.httpProxy;
+        return httpProxy != null && httpProxy.isProxySelf(hostName, port);
     }
 
-    // 处理本代理服务器的请求（如 /health）
+    // 处理本代理服务器的请求（如 /metrics）
     private void handleInternalRequest(ChannelHandlerContext ctx, FullHttpRequest request) {
-//        String uri = request.uri();
-//
-//        if ("/health".equals(uri)) {
-//            FullHttpResponse response = new DefaultFullHttpResponse(
-//                    HttpVersion.HTTP_1_1,
-//                    HttpResponseStatus.OK,
-//                    Unpooled.copiedBuffer("OK".getBytes()));
-//            HttpUtils.setKeepAliveAndHeaders(response, request);
-//            ctx.writeAndFlush(response);
-//        } else if ("/info".equals(uri)) {
-//            FullHttpResponse response = new DefaultFullHttpResponse(
-//                    HttpVersion.HTTP_1_1,
-//                    HttpResponseStatus.OK,
-//                    Unpooled.copiedBuffer("This is a proxy server".getBytes()));
-//            HttpUtils.setKeepAliveAndHeaders(response, request);
-//            ctx.writeAndFlush(response);
-//        } else {
-//            HttpUtils.sendError(ctx, HttpResponseStatus.NOT_FOUND);
-//        }
+        String path = HttpUtils.toOriginForm(request.uri());
+        int queryIndex = path.indexOf('?');
+        if (queryIndex >= 0) {
+            path = path.substring(0, queryIndex);
+        }
+        if (!"/metrics".equals(path) || !HttpMethod.GET.equals(request.method())) {
+            HttpUtils.sendError(ctx, HttpResponseStatus.NOT_FOUND);
+            return;
+        }
+        FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(), HttpResponseStatus.OK,
+                Unpooled.copiedBuffer(ProxyMetrics.toPrometheusText(), StandardCharsets.UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; version=0.0.4; charset=utf-8");
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+        boolean keepAlive = HttpUtils.isClientKeepAlive(request);
+        HttpUtil.setKeepAlive(response, keepAlive);
+        // 经过channel写出，由其后的响应编码器编码
+        ChannelFuture writeFuture = ctx.channel().writeAndFlush(response);
+        if (!keepAlive) {
+            writeFuture.addListener(ChannelFutureListener.CLOSE);
+        }
     }
 
     // 处理 CONNECT 隧道（HTTPS）
     private void handleConnect(ChannelHandlerContext ctx, HttpRequest request) {
-        String[] parts = request.uri().split(":");
-        String host = parts[0];
-        int port = parts.length > 1 ? Integer.parseInt(parts[1]) : 443;
-        // 获取目标访问IP信息
-        DomainIPInfo targetIpInfo = getRealAvailableIpInfo(getDomainIPBy(host));
-        // 得到目标访问host
-        String targetHost = targetIpInfo != null ? targetIpInfo.getIp() : host;
-
+        ProxyMetrics.recordConnectRequest();
+        String host = HttpUtils.getHost(request.uri());
+        int port = HttpUtils.getPort(request.uri(), 443);
+        ConnectReceivedEvent.emit(host, port);
+        // 获取预先排好序的候选IP，未检测到IP的域名直接按域名连接
+        DomainRoute route = getDomainRoute(host);
+        DomainIPInfo[] candidates = route != null ? route.getCandidates() : NO_CANDIDATES;
 
         Bootstrap bootstrap = new Bootstrap();
-        bootstrap.group(ctx.channel().eventLoop())
-                .channel(ctx.channel().getClass())
-                .handler(new ProxyBackendHandler(ctx.channel()))
+        bootstrap.channel(ctx.channel().getClass())
+                // 未检测到IP的域名异步解析，不阻塞eventLoop
+                .resolver(resolverGroup)
                 .option(ChannelOption.AUTO_READ, false)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, config.getWriteBufferWaterMark())
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)  // 关键优化：设置5秒连接超时
                 // 不开启keep-alive
                 .option(ChannelOption.SO_KEEPALIVE, false)            // 推荐添加：保持连接活跃
                 .option(ChannelOption.TCP_NODELAY, true)             // 推荐添加：禁用Nagle算法
         ;
 
-        ChannelFuture connectFuture = bootstrap.connect(targetHost, port);
-        ClientChannelContext clientCtx = new ClientChannelContext(host, targetIpInfo, ctx.channel(), connectFuture);
+        // 多个候选IP错开竞速连接，第一个连接成功的IP胜出
+        ProxyBackendHandler backendHandler = new ProxyBackendHandler(ctx.channel(), config.isFlushConsolidation());
+        HappyEyeballsConnector connector = new HappyEyeballsConnector(ctx.channel().eventLoop(), bootstrap,
+                backendHandler, candidates, host, port, config.getConnectStaggerMillis());
+        Future<Channel> connectFuture = connector.connect();
+        ClientChannelContext clientCtx = new ClientChannelContext(host, ctx.channel(), connectFuture);
         ctx.channel().attr(CLIENT_CTX_KEY).set(clientCtx);
+        connectFuture.addListener((FutureListener<Channel>) future -> {
+            if (future.isSuccess()) {
+                clientCtx.bindTunnelTarget(future.getNow(), connector.getWinner());
+                UpstreamSelectedEvent.emit(host, connector.getWinner(),
+                        candidates.length > 0 ? candidates[0] : null, candidates.length);
+                recordTunnelEvent(clientCtx, backendHandler, host);
+            }
+        });
+    }
+
+    /**
+     * JFR记录开启时，在客户端连接关闭后提交隧道事件；未开启时不注册监听
+     */
+    private void recordTunnelEvent(ClientChannelContext clientCtx, ProxyBackendHandler backendHandler, String host) {
+        TunnelEvent event = new TunnelEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.begin();
+        clientCtx.getClientChannel().closeFuture().addListener(closeFuture -> TunnelEvent.emit(event, host,
+                clientCtx.getTargetIpInfo() != null ? clientCtx.getTargetIpInfo().getIp() : host,
+                clientCtx.getUpstreamBytes(), backendHandler.getRelayedBytes(), clientCtx.isSpliced()));
     }
 
     // 转发到目标服务器
     private void handleForwardedRequest(ChannelHandlerContext ctx, HttpRequest request, String host, int port) {
+        ProxyMetrics.recordHttpRequest();
         // 获取目标访问IP信息
-        DomainIPInfo targetIpInfo = getRealAvailableIpInfo(getDomainIPBy(host));
+        DomainRoute route = getDomainRoute(host);
+        DomainIPInfo targetIpInfo = route != null ? route.getBest() : null;
+        UpstreamSelectedEvent.emit(host, targetIpInfo, targetIpInfo, route != null ? route.getCandidates().length : 0);
         // 得到目标访问host
         String targetHost = targetIpInfo != null ? targetIpInfo.getIp() : host;
 
-        InetSocketAddress targetAddress = new InetSocketAddress(targetHost, port);
-
-        Bootstrap bootstrap = new Bootstrap();
-        bootstrap.group(ctx.channel().eventLoop())
-                .channel(ctx.channel().getClass())
-                .handler(new ProxyBackendHandler(ctx.channel()))
-                .option(ChannelOption.AUTO_READ, false);
+        // 域名地址不在此处解析，由连接池的解析器异步解析
+        InetSocketAddress targetAddress = targetIpInfo != null
+                ? new InetSocketAddress(targetHost, port) : InetSocketAddress.createUnresolved(targetHost, port);
 
-        ChannelFuture connectFuture = bootstrap.connect(targetAddress);
-        ClientChannelContext clientCtx = new ClientChannelContext(targetHost, targetIpInfo, ctx.channel(), connectFuture);
+        // 每个请求独立选择目标连接，同一客户端连接上的请求可以发往不同的目标服务器
+        ClientChannelContext clientCtx = new ClientChannelContext(targetHost, targetIpInfo, ctx.channel(), upstreamPool);
+        clientCtx.prepareRequest(request, config.getUpstreamMaxIdlePerHost() > 0);
         ctx.channel().attr(CLIENT_CTX_KEY).set(clientCtx);
+        // 连接池中有空闲连接时借出会在当前线程同步完成，需先暂存请求
+        clientCtx.addPendingData(request);
 
-        connectFuture.addListener((ChannelFutureListener) future -> {
-            if (future.isSuccess()) {
-                clientCtx.addPendingData(request);
-                clientCtx.flushPendingData();
-            } else {
+        // 从连接池借出目标连接，同一目标地址的keep-alive连接跨请求复用
+        long acquireStartNanos = System.nanoTime();
+        upstreamPool.acquire(ctx.channel().eventLoop(), targetAddress).addListener((FutureListener<Channel>) future -> {
+            if (!future.isSuccess()) {
+                // 连接失败计入IP记录，连接池等待超时不属于IP的问题
+                if (future.cause() instanceof ConnectException) {
+                    ProxyMetrics.recordUpstreamConnectFailure(targetHost);
+                    // 连接池不记录失败连接的耗时，以借出等待时间近似
+                    UpstreamConnectEvent.emit(host, targetHost, port, false, System.nanoTime() - acquireStartNanos);
+                    if (targetIpInfo != null) {
+                        DomainIpConvertor.recordConnectFailure(targetIpInfo);
+                    }
+                }
+                clientCtx.releasePendingData();
                 HttpUtils.sendError(ctx, HttpResponseStatus.BAD_GATEWAY);
-                ctx.close();
+                return;
             }
+            Channel targetChannel = future.getNow();
+            long connectNanos = UpstreamChannelPool.takeConnectNanos(targetChannel);
+            if (connectNanos >= 0) {
+                ProxyMetrics.recordUpstreamConnect(host, connectNanos);
+                UpstreamConnectEvent.emit(host, targetHost, port, true, connectNanos);
+                if (targetIpInfo != null) {
+                    DomainIpConvertor.recordConnectSuccess(targetIpInfo, connectNanos);
+                }
+            }
+            if (!ctx.channel().isActive()) {
+                // 客户端已断开，未写入任何数据的连接直接归还
+                clientCtx.releasePendingData();
+                upstreamPool.release(targetChannel);
+                return;
+            }
+            clientCtx.bindTarget(targetChannel);
+            clientCtx.flushPendingData();
         });
-
-        if (!(request instanceof FullHttpRequest)) {
-            clientCtx.addPendingData(request);
-        }
     }
 
     @Override
@@ -230,8 +443,14 @@ public class ProxyFrontendConnectHandler extends SimpleChannelInboundHandler<Htt
         ctx.close();
     }
 
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        releaseQueuedMessages();
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) {
+        releaseQueuedMessages();
         ClientChannelContext clientCtx = ctx.channel().attr(CLIENT_CTX_KEY).get();
         if (clientCtx != null) {
             clientCtx.closeTargetChannel();
@@ -16,13 +16,62 @@ import java.util.StringTokenizer;
 import static com.xbz.xproxy.netty.ProxyFrontendConnectHandler.CLIENT_CTX_KEY;
 
 public class ProxyFrontendTransferHandler extends SimpleChannelInboundHandler<ByteBuf> {
+    /**
+     * 是否合并flush：转发给目标服务器的数据在channelReadComplete中由{@link ClientChannelContext#flushTarget()}统一flush
+     */
+    private final boolean flushConsolidation;
+
+    public ProxyFrontendTransferHandler() {
+        this(false);
+    }
+
+    public ProxyFrontendTransferHandler(boolean flushConsolidation) {
+        this.flushConsolidation = flushConsolidation;
+    }
 
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
         ClientChannelContext clientCtx = ctx.channel().attr(CLIENT_CTX_KEY).get();
         if (clientCtx != null && clientCtx.isTargetConnected()) {
-            clientCtx.forwardToTarget(msg);
+            if (flushConsolidation) {
+                clientCtx.writeToTarget(msg);
+            } else {
+                clientCtx.forwardToTarget(msg);
+            }
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        if (flushConsolidation) {
+            ClientChannelContext clientCtx = ctx.channel().attr(CLIENT_CTX_KEY).get();
+            if (clientCtx != null) {
+                clientCtx.flushTarget();
+            }
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // 客户端channel写缓冲回落到低水位以下，恢复读取目标服务器数据
+        if (ctx.channel().isWritable()) {
+            ClientChannelContext clientCtx = ctx.channel().attr(CLIENT_CTX_KEY).get();
+            if (clientCtx != null) {
+                clientCtx.resumeTargetRead();
+            }
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        // 客户端关闭后关闭对应的目标连接
+        ClientChannelContext clientCtx = ctx.channel().attr(CLIENT_CTX_KEY).get();
+        if (clientCtx != null) {
+            clientCtx.closeTargetChannelOnFlush();
         }
+        ctx.fireChannelInactive();
     }
 
     @Override
@@ -0,0 +1,128 @@
+package com.xbz.xproxy.netty;
+
+import com.xbz.xproxy.metrics.ProxyMetrics;
+import com.xbz.xproxy.util.ProxyUtils;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * 普通http转发的目标连接处理器，位于连接池中目标连接的{@link HttpClientCodec}之后<br>
+ * 连接借出期间通过{@link #BOUND_CLIENT_CTX_KEY}绑定当前客户端，将响应转发给客户端；
+ * 响应结束（LastHttpContent）后由{@link ClientChannelContext#completeResponse(boolean)}解除绑定，归还连接池或关闭
+ */
+public class ProxyHttpBackendHandler extends SimpleChannelInboundHandler<HttpObject> {
+    /**
+     * 目标连接当前绑定的客户端上下文，连接空闲在池中时为空
+     */
+    public static final AttributeKey<ClientChannelContext> BOUND_CLIENT_CTX_KEY =
+            AttributeKey.newInstance("boundClientChannelContext");
+
+    /**
+     * 是否合并flush：目标服务器的响应数据在channelReadComplete中统一flush
+     */
+    private final boolean flushConsolidation;
+    /**
+     * 当前响应是否为1xx临时响应（如100 Continue），临时响应结束后仍需等待最终响应
+     */
+    private boolean informational = false;
+    /**
+     * 当前响应结束后连接是否可以继续复用
+     */
+    private boolean keepAlive = false;
+
+    public ProxyHttpBackendHandler(boolean flushConsolidation) {
+        this.flushConsolidation = flushConsolidation;
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
+        ClientChannelContext clientCtx = ctx.channel().attr(BOUND_CLIENT_CTX_KEY).get();
+        if (clientCtx == null) {
+            // 空闲连接收到数据，说明服务端响应与请求不匹配，连接不再可用
+            ctx.close();
+            return;
+        }
+        if (msg instanceof HttpResponse response) {
+            HttpResponseStatus status = response.status();
+            informational = status.codeClass() == HttpStatusClass.INFORMATIONAL
+                    && status.code() != HttpResponseStatus.SWITCHING_PROTOCOLS.code();
+            if (!informational) {
+                // 响应体没有明确边界时以关闭连接结束
+                boolean framed = HttpUtil.isContentLengthSet(response)
+                        || HttpUtil.isTransferEncodingChunked(response)
+                        || HttpMethod.HEAD.equals(clientCtx.getRequestMethod())
+                        || status.code() == HttpResponseStatus.NO_CONTENT.code()
+                        || status.code() == HttpResponseStatus.NOT_MODIFIED.code();
+                // 协议升级后连接不再是http连接，不能复用
+                keepAlive = HttpUtil.isKeepAlive(response) && framed
+                        && status.code() != HttpResponseStatus.SWITCHING_PROTOCOLS.code();
+                clientCtx.prepareResponse(response, framed);
+            }
+        }
+        if (msg instanceof HttpContent content) {
+            ProxyMetrics.recordDownstreamBytes(content.content().readableBytes());
+        }
+        Channel clientChannel = clientCtx.getClientChannel();
+        if (msg instanceof LastHttpContent && !informational) {
+            clientChannel.writeAndFlush(ReferenceCountUtil.retain(msg));
+            clientCtx.completeResponse(keepAlive);
+            return;
+        }
+        // 客户端channel可写后由ProxyFrontendTransferHandler恢复读取目标服务器
+        ProxyUtils.writeWithBackpressure(ctx.channel(), clientChannel, ReferenceCountUtil.retain(msg), !flushConsolidation);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        if (flushConsolidation) {
+            ClientChannelContext clientCtx = ctx.channel().attr(BOUND_CLIENT_CTX_KEY).get();
+            if (clientCtx != null) {
+                clientCtx.getClientChannel().flush();
+            }
+        }
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // 目标channel写缓冲回落到低水位以下，通知客户端pipeline；
+        // 客户端可能因等待按需检测或暂存管线化请求而暂停读取，是否恢复由ProxyFrontendConnectHandler决定
+        ClientChannelContext clientCtx = ctx.channel().attr(BOUND_CLIENT_CTX_KEY).get();
+        if (clientCtx != null && ctx.channel().isWritable() && clientCtx.getClientChannel().isActive()) {
+            clientCtx.getClientChannel().pipeline().fireUserEventTriggered(UpstreamWritableEvent.INSTANCE);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof IdleStateEvent) {
+            // 池中空闲超时，淘汰连接
+            ctx.close();
+            return;
+        }
+        ctx.fireUserEventTriggered(evt);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        // 响应未结束时目标连接断开，客户端无法得到完整响应，关闭客户端连接
+        ClientChannelContext clientCtx = ctx.channel().attr(BOUND_CLIENT_CTX_KEY).getAndSet(null);
+        if (clientCtx != null) {
+            ProxyUtils.closeOnFlush(clientCtx.getClientChannel());
+        }
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        System.err.println("ProxyHttpBackendHandler...error!");
+        cause.printStackTrace(System.err);
+        ctx.close();
+    }
+}
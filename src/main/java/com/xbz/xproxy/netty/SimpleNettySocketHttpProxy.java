@@ -2,14 +2,15 @@ package com.xbz.xproxy.netty;
 
 import com.xbz.xproxy.DomainIpConvertor;
 import com.xbz.xproxy.exception.BusinessException;
+import com.xbz.xproxy.pojo.ProxyServerConfig;
+import com.xbz.xproxy.resolver.CachingAddressResolverGroup;
 import com.xbz.xproxy.util.NetUtil;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.http.HttpDecoderConfig;
 import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.codec.http.HttpResponseEncoder;
 import io.netty.handler.logging.LoggingHandler;
 import lombok.Getter;
 
@@ -24,10 +25,24 @@ public class SimpleNettySocketHttpProxy {
      * http请求解析handler名称
      */
     public static final String CHANNEL_HANDLER_HTTP_REQUEST_DECODER = HttpRequestDecoder.class.getSimpleName();
+    /**
+     * 普通http转发的响应编码handler名称
+     */
+    public static final String CHANNEL_HANDLER_HTTP_RESPONSE_ENCODER = HttpResponseEncoder.class.getSimpleName();
     public static final String CHANNEL_HANDLER_PROXY_FRONTEND_CONNECT = ProxyFrontendConnectHandler.class.getSimpleName();
     public static final String CHANNEL_HANDLER_PROXY_FRONTEND_TRANSFER = ProxyFrontendTransferHandler.class.getSimpleName();
     private int port;
     private String host;
+    @Getter
+    private final ProxyServerConfig config;
+    /**
+     * 普通http转发的目标连接池
+     */
+    private final UpstreamChannelPool upstreamChannelPool;
+    /**
+     * 按域名连接目标服务器时的非阻塞地址解析器
+     */
+    private final CachingAddressResolverGroup addressResolverGroup;
     private List<String> allBindIpList;
     private DomainIpConvertor domainIpConvertor = new DomainIpConvertor();
     private Thread nettyThread;
@@ -38,15 +53,30 @@ public class SimpleNettySocketHttpProxy {
     @Getter
     private volatile ProxyServerStatusEnum status = ProxyServerStatusEnum.PREPARE;
 
+    public SimpleNettySocketHttpProxy(ProxyServerConfig config) {
+        this.config = config;
+        this.host = config.getHost();
+        this.port = config.getPort();
+        this.addressResolverGroup = new CachingAddressResolverGroup();
+        this.upstreamChannelPool = new UpstreamChannelPool(config, addressResolverGroup);
+    }
+
     public SimpleNettySocketHttpProxy(String host, int port) {
-        this.host = host;
-        this.port = port;
+        this(createConfig(host, port));
     }
 
     public SimpleNettySocketHttpProxy() {
         this("0.0.0.0", 8080);
     }
 
+    private static ProxyServerConfig createConfig(String host, int port) {
+        ProxyServerConfig config = new ProxyServerConfig();
+        config.setHost(host);
+        config.setPort(port);
+        config.setTransport(TransportTypeEnum.detect());
+        return config;
+    }
+
     /**
      * 启动代理
      */
@@ -55,7 +85,10 @@ public class SimpleNettySocketHttpProxy {
         nettyThread.start();
     }
 
-    private HttpRequestDecoder createHttpRequestDecoder() {
+    /**
+     * 客户端请求解码器
+     */
+    public static HttpRequestDecoder createHttpRequestDecoder() {
         HttpDecoderConfig httpDecoderConfig = new HttpDecoderConfig();
         // 请求行最大长度
         httpDecoderConfig.setMaxInitialLineLength(4096);
@@ -70,22 +103,28 @@ public class SimpleNettySocketHttpProxy {
 
     private void doStartProxyServer() {
         // bossGroup 处理连接请求，workerGroup 处理I/O操作
-        EventLoopGroup bossGroup = new NioEventLoopGroup();
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+        // 后端连接复用前端channel的eventLoop与channel类型，因此与前端使用同一传输层
+        TransportTypeEnum transport = config.getTransport();
+        System.out.println("代理服务器传输层：" + transport.getCode() + "（" + transport.getName() + "）");
+        EventLoopGroup bossGroup = transport.newEventLoopGroup(1);
+        EventLoopGroup workerGroup = transport.newEventLoopGroup(0);
         try {
             ServerBootstrap b = new ServerBootstrap();
             b.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)  // 使用NIO传输
+                    .channel(transport.getServerChannelClass())
                     .option(ChannelOption.SO_BACKLOG, 128)  // 连接队列大小
                     .childOption(ChannelOption.SO_KEEPALIVE, true)  // 保持连接
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, config.getWriteBufferWaterMark())  // 写缓冲水位，超过高水位暂停读取对端
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) {
                             // 配置处理器链
                             ChannelPipeline p = ch.pipeline();
                             p.addLast(CHANNEL_HANDLER_HTTP_REQUEST_DECODER, createHttpRequestDecoder());
-                            p.addLast(CHANNEL_HANDLER_PROXY_FRONTEND_CONNECT, new ProxyFrontendConnectHandler());
-                            p.addLast(CHANNEL_HANDLER_PROXY_FRONTEND_TRANSFER, new ProxyFrontendTransferHandler());
+                            p.addLast(CHANNEL_HANDLER_PROXY_FRONTEND_CONNECT, new ProxyFrontendConnectHandler(config, upstreamChannelPool, addressResolverGroup));
+                            p.addLast(CHANNEL_HANDLER_PROXY_FRONTEND_TRANSFER, new ProxyFrontendTransferHandler(config.isFlushConsolidation()));
+                            // 响应编码器位于ProxyFrontendConnectHandler之后，其通过ctx直接写出的原始响应（CONNECT应答、错误响应）不经过编码器
+                            p.addLast(CHANNEL_HANDLER_HTTP_RESPONSE_ENCODER, new HttpResponseEncoder());
 
                             p.addLast(new LoggingHandler());
                         }
@@ -134,6 +173,8 @@ public class SimpleNettySocketHttpProxy {
                 }
             }
         } finally {
+            upstreamChannelPool.close();
+            addressResolverGroup.close();
             workerGroup.shutdownGracefully();
             bossGroup.shutdownGracefully();
             this.status = ProxyServerStatusEnum.STOPPED;
@@ -172,19 +213,21 @@ public class SimpleNettySocketHttpProxy {
         if (port != this.port) {
             return false;
         }
-        return allBindIpList.contains(host);
+        return allBindIpList.contains(NetUtil.normalizeIP(host));
     }
 
     private List<String> getAllBindIpList() {
         HashSet<String> ipSet = new HashSet<String>();
-        if ("0.0.0.0".equals(host)) {
+        if ("0.0.0.0".equals(host) || "::".equals(host)) {
             try {
-                ipSet.addAll(NetUtil.getAllLocalIPAddresses(false, false));
+                for (String ip : NetUtil.getAllLocalIPAddresses(false, true)) {
+                    ipSet.add(NetUtil.normalizeIP(ip));
+                }
             } catch (SocketException e) {
                 throw new RuntimeException(e);
             }
         } else {
-            ipSet.add(this.host);
+            ipSet.add(NetUtil.normalizeIP(this.host));
         }
         return new ArrayList<>(ipSet);
     }
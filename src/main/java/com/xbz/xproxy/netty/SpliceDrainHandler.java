@@ -0,0 +1,85 @@
+package com.xbz.xproxy.netty;
+
+import com.xbz.xproxy.util.ProxyUtils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.epoll.AbstractEpollStreamChannel;
+import io.netty.channel.socket.DuplexChannel;
+import io.netty.channel.socket.ChannelInputShutdownEvent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * splice隧道的半关闭处理<br>
+ * netty在splice过程中收到对端FIN(EPOLLRDHUP)时会立即关闭输入，此时socket接收缓冲区中可能仍有未被splice的数据，
+ * 直接关闭channel会导致隧道尾部数据丢失（例如服务端发送完响应后立即关闭连接）。<br>
+ * 开启半关闭后，本处理器在输入关闭时将缓冲区剩余数据读出并写入对端（排在已入队的splice输出任务之后，保证顺序），
+ * 写出完成后关闭对端的输出方向，两个方向都结束后关闭两端连接。
+ */
+public class SpliceDrainHandler extends ChannelInboundHandlerAdapter {
+    private static final int DRAIN_BUFFER_SIZE = 64 * 1024;
+
+    private final Channel peerChannel;
+
+    public SpliceDrainHandler(Channel peerChannel) {
+        this.peerChannel = peerChannel;
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof ChannelInputShutdownEvent) {
+            Channel channel = ctx.channel();
+            if (channel instanceof AbstractEpollStreamChannel epollChannel) {
+                drainTo(epollChannel);
+            }
+            if (!(channel instanceof DuplexChannel duplexChannel) || !(peerChannel instanceof DuplexChannel peerDuplexChannel)) {
+                ProxyUtils.closeOnFlush(peerChannel);
+                return;
+            }
+            // 将半关闭传递给对端，对端仍可继续回写数据
+            peerChannel.writeAndFlush(Unpooled.EMPTY_BUFFER)
+                    .addListener(future -> peerDuplexChannel.shutdownOutput())
+                    .addListener(future -> {
+                        if (duplexChannel.isInputShutdown() && peerDuplexChannel.isInputShutdown()) {
+                            channel.close();
+                            peerChannel.close();
+                        }
+                    });
+            return;
+        }
+        ctx.fireUserEventTriggered(evt);
+    }
+
+    private void drainTo(AbstractEpollStreamChannel channel) throws IOException {
+        while (peerChannel.isActive()) {
+            ByteBuf buf = channel.alloc().directBuffer(DRAIN_BUFFER_SIZE);
+            int read;
+            try {
+                ByteBuffer nioBuffer = buf.internalNioBuffer(buf.writerIndex(), buf.writableBytes());
+                read = channel.fd().read(nioBuffer, nioBuffer.position(), nioBuffer.limit());
+            } catch (IOException e) {
+                buf.release();
+                throw e;
+            }
+            // FIN已到达，接收缓冲区内为全部剩余数据，读到0即结束
+            if (read <= 0) {
+                buf.release();
+                return;
+            }
+            buf.writerIndex(buf.writerIndex() + read);
+            peerChannel.write(buf);
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        System.err.println("SpliceDrainHandler...error!");
+        cause.printStackTrace(System.err);
+        ProxyUtils.closeOnFlush(peerChannel);
+        ctx.close();
+    }
+}
@@ -0,0 +1,148 @@
+package com.xbz.xproxy.netty;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.IoHandlerFactory;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollIoHandler;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.uring.IoUring;
+import io.netty.channel.uring.IoUringIoHandler;
+import io.netty.channel.uring.IoUringServerSocketChannel;
+import io.netty.channel.uring.IoUringSocketChannel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 网络传输层类型<br>
+ * <code>nio</code>为JDK NIO实现，全平台可用；<code>epoll</code>与<code>io_uring</code>为netty提供的linux原生传输实现，
+ * 系统调用更少、尾延迟更低，仅在linux平台且原生库加载成功时可用。
+ */
+@Getter
+@AllArgsConstructor
+public enum TransportTypeEnum {
+    /**
+     * JDK NIO
+     */
+    NIO("nio", "JDK NIO"),
+    /**
+     * linux epoll
+     */
+    EPOLL("epoll", "linux原生epoll"),
+    /**
+     * linux io_uring
+     */
+    IO_URING("io_uring", "linux原生io_uring"),
+    ;
+
+    /**
+     * 自动检测传输层的参数值
+     */
+    public static final String AUTO = "auto";
+
+    private final String code;
+    private final String name;
+
+    /**
+     * 当前平台是否可用
+     */
+    public boolean isAvailable() {
+        return switch (this) {
+            case NIO -> true;
+            case EPOLL -> Epoll.isAvailable();
+            case IO_URING -> IoUring.isAvailable();
+        };
+    }
+
+    /**
+     * 不可用原因
+     */
+    public Throwable unavailabilityCause() {
+        return switch (this) {
+            case NIO -> null;
+            case EPOLL -> Epoll.unavailabilityCause();
+            case IO_URING -> IoUring.unavailabilityCause();
+        };
+    }
+
+    /**
+     * 创建与当前传输层匹配的EventLoopGroup
+     *
+     * @param nThreads 线程数，0表示使用netty默认值
+     * @return
+     */
+    public EventLoopGroup newEventLoopGroup(int nThreads) {
+        IoHandlerFactory ioHandlerFactory = switch (this) {
+            case NIO -> NioIoHandler.newFactory();
+            case EPOLL -> EpollIoHandler.newFactory();
+            case IO_URING -> IoUringIoHandler.newFactory();
+        };
+        return new MultiThreadIoEventLoopGroup(nThreads, ioHandlerFactory);
+    }
+
+    public Class<? extends ServerChannel> getServerChannelClass() {
+        return switch (this) {
+            case NIO -> NioServerSocketChannel.class;
+            case EPOLL -> EpollServerSocketChannel.class;
+            case IO_URING -> IoUringServerSocketChannel.class;
+        };
+    }
+
+    public Class<? extends SocketChannel> getSocketChannelClass() {
+        return switch (this) {
+            case NIO -> NioSocketChannel.class;
+            case EPOLL -> EpollSocketChannel.class;
+            case IO_URING -> IoUringSocketChannel.class;
+        };
+    }
+
+    /**
+     * 自动检测当前平台最合适的传输层：epoll可用时使用epoll，否则使用nio<br>
+     * io_uring在部分内核/容器环境下受限，只在明确指定时使用
+     *
+     * @return
+     */
+    public static TransportTypeEnum detect() {
+        if (EPOLL.isAvailable()) {
+            return EPOLL;
+        }
+        return NIO;
+    }
+
+    /**
+     * 根据参数值选择传输层，参数为空或<code>auto</code>时自动检测；指定的传输层不可用时回退为自动检测结果
+     *
+     * @param code nio|epoll|io_uring|auto
+     * @return
+     */
+    public static TransportTypeEnum select(String code) {
+        if (code == null || code.isBlank() || AUTO.equalsIgnoreCase(code)) {
+            return detect();
+        }
+        TransportTypeEnum transport = of(code);
+        if (transport == null) {
+            return null;
+        }
+        if (!transport.isAvailable()) {
+            TransportTypeEnum fallback = detect();
+            System.err.println("传输层[" + transport.getCode() + "]不可用，自动回退为[" + fallback.getCode() + "]，原因：" + transport.unavailabilityCause());
+            return fallback;
+        }
+        return transport;
+    }
+
+    public static TransportTypeEnum of(String code) {
+        for (TransportTypeEnum transport : values()) {
+            if (transport.code.equalsIgnoreCase(code)) {
+                return transport;
+            }
+        }
+        return null;
+    }
+}
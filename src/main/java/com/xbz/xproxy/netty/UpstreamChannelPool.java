@@ -0,0 +1,266 @@
+package com.xbz.xproxy.netty;
+
+import com.xbz.xproxy.pojo.ProxyServerConfig;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.pool.*;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 普通http转发的目标服务器keep-alive连接池<br>
+ * 按eventLoop隔离：借出的目标连接与客户端连接位于同一eventLoop，转发与背压处理无需跨线程；
+ * 每个eventLoop内按目标地址（解析后的IP+端口）维护一个{@link FixedChannelPool}，
+ * 因此单个目标地址的最大连接数、最大空闲连接数均为每个eventLoop的上限。<br>
+ * 空闲连接由{@link IdleStateHandler}超时淘汰，借出前通过健康检查剔除已关闭或空闲超时的连接。<br>
+ * 目标地址数量没有上限，连接池在没有借出连接且最后一个空闲连接关闭后移除，不会随访问过的目标地址持续增长。
+ */
+public class UpstreamChannelPool {
+    public static final String CHANNEL_HANDLER_HTTP_CLIENT_CODEC = HttpClientCodec.class.getSimpleName();
+    public static final String CHANNEL_HANDLER_PROXY_HTTP_BACKEND = ProxyHttpBackendHandler.class.getSimpleName();
+    public static final String CHANNEL_HANDLER_IDLE_STATE = IdleStateHandler.class.getSimpleName();
+    /**
+     * 连接所属的连接池，归还时使用
+     */
+    private static final AttributeKey<ChannelPool> UPSTREAM_POOL_KEY = AttributeKey.newInstance("upstreamPool");
+    /**
+     * 连接最近一次归还的时间（毫秒）
+     */
+    private static final AttributeKey<Long> RELEASED_AT_KEY = AttributeKey.newInstance("upstreamReleasedAt");
+    /**
+     * 新建连接的TCP连接耗时（纳秒），借出后由{@link #takeConnectNanos(Channel)}取出一次
+     */
+    private static final AttributeKey<Long> CONNECT_NANOS_KEY = AttributeKey.newInstance("upstreamConnectNanos");
+    /**
+     * 连接目标服务器超时时间（毫秒）
+     */
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    /**
+     * 达到单目标最大连接数后等待可用连接的超时时间（毫秒）
+     */
+    private static final long ACQUIRE_TIMEOUT_MILLIS = 5000;
+
+    private final ProxyServerConfig config;
+    /**
+     * 目标地址为域名时的地址解析器
+     */
+    private final AddressResolverGroup<InetSocketAddress> resolverGroup;
+    private final Map<EventLoop, AbstractChannelPoolMap<InetSocketAddress, IdleLimitedChannelPool>> eventLoopPools = new ConcurrentHashMap<>();
+
+    public UpstreamChannelPool(ProxyServerConfig config, AddressResolverGroup<InetSocketAddress> resolverGroup) {
+        this.config = config;
+        this.resolverGroup = resolverGroup;
+    }
+
+    /**
+     * 借出一个到目标地址的连接，优先复用空闲连接，没有空闲连接时新建
+     *
+     * @param eventLoop     客户端连接所在的eventLoop，借出的连接位于同一eventLoop
+     * @param targetAddress 目标地址，未解析的域名地址由解析器异步解析
+     */
+    public Future<Channel> acquire(EventLoop eventLoop, InetSocketAddress targetAddress) {
+        IdleLimitedChannelPool pool = eventLoopPools.computeIfAbsent(eventLoop, this::newPoolMap).get(targetAddress);
+        Future<Channel> acquireFuture = pool.acquire();
+        // 新建连接失败时，连接关闭可能早于借出失败释放连接数，借出失败后再检查是否移除连接池
+        acquireFuture.addListener(future -> {
+            if (!future.isSuccess()) {
+                pool.evictIfUnused();
+            }
+        });
+        return acquireFuture;
+    }
+
+    /**
+     * 归还连接，仅在一次请求响应完整结束、连接可以继续复用时调用，否则应直接关闭连接
+     */
+    public void release(Channel channel) {
+        ChannelPool pool = channel.attr(UPSTREAM_POOL_KEY).get();
+        if (pool == null) {
+            channel.close();
+            return;
+        }
+        pool.release(channel);
+    }
+
+    /**
+     * 取出新建连接的TCP连接耗时，复用的连接没有耗时
+     *
+     * @return 连接耗时（纳秒），复用连接返回-1
+     */
+    public static long takeConnectNanos(Channel channel) {
+        Long connectNanos = channel.attr(CONNECT_NANOS_KEY).getAndSet(null);
+        return connectNanos != null ? connectNanos : -1;
+    }
+
+    public void close() {
+        for (AbstractChannelPoolMap<InetSocketAddress, IdleLimitedChannelPool> poolMap : eventLoopPools.values()) {
+            poolMap.close();
+        }
+        eventLoopPools.clear();
+    }
+
+    /**
+     * 当前所有eventLoop中的连接池数量
+     */
+    int getPoolCount() {
+        int count = 0;
+        for (AbstractChannelPoolMap<InetSocketAddress, IdleLimitedChannelPool> poolMap : eventLoopPools.values()) {
+            count += poolMap.size();
+        }
+        return count;
+    }
+
+    private AbstractChannelPoolMap<InetSocketAddress, IdleLimitedChannelPool> newPoolMap(EventLoop eventLoop) {
+        Bootstrap bootstrap = new Bootstrap()
+                .group(eventLoop)
+                .channel(config.getTransport().getSocketChannelClass())
+                .resolver(resolverGroup)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MILLIS)
+                .option(ChannelOption.WRITE_BUFFER_WATER_MARK, config.getWriteBufferWaterMark())
+                .option(ChannelOption.TCP_NODELAY, true);
+        return new AbstractChannelPoolMap<>() {
+            @Override
+            protected IdleLimitedChannelPool newPool(InetSocketAddress key) {
+                return new IdleLimitedChannelPool(bootstrap.clone().remoteAddress(key), key, this);
+            }
+        };
+    }
+
+    /**
+     * 健康检查：连接仍然活跃，且空闲时间未超过空闲超时（IdleStateHandler触发前的兜底）
+     */
+    private boolean isHealthy(Channel channel) {
+        if (!channel.isActive()) {
+            return false;
+        }
+        Long releasedAt = channel.attr(RELEASED_AT_KEY).get();
+        return releasedAt == null
+                || System.currentTimeMillis() - releasedAt < TimeUnit.SECONDS.toMillis(config.getUpstreamIdleTimeoutSeconds());
+    }
+
+    /**
+     * 限制空闲连接数量的连接池，空闲连接超过上限时归还的连接直接关闭<br>
+     * 连接关闭时：借出中的连接归还连接池释放占用的连接数（已归还的连接重复归还会被连接池忽略），
+     * 空闲的连接不再计入空闲连接；之后没有借出连接也没有空闲连接时，从所属的连接池映射中移除并关闭连接池。
+     */
+    private class IdleLimitedChannelPool extends FixedChannelPool {
+        private final InetSocketAddress key;
+        private final AbstractChannelPoolMap<InetSocketAddress, IdleLimitedChannelPool> poolMap;
+        /**
+         * 当前池中未关闭的空闲连接，仅在所属eventLoop中访问
+         */
+        private final Set<Channel> idleChannels = new HashSet<>();
+        /**
+         * 是否已从连接池映射中移除
+         */
+        private boolean evicted = false;
+
+        IdleLimitedChannelPool(Bootstrap bootstrap, InetSocketAddress key,
+                               AbstractChannelPoolMap<InetSocketAddress, IdleLimitedChannelPool> poolMap) {
+            super(bootstrap, new UpstreamChannelPoolHandler(),
+                    channel -> channel.eventLoop().newSucceededFuture(isHealthy(channel)),
+                    AcquireTimeoutAction.FAIL, ACQUIRE_TIMEOUT_MILLIS,
+                    config.getUpstreamMaxConnectionsPerHost(), Integer.MAX_VALUE,
+                    true, true);
+            this.key = key;
+            this.poolMap = poolMap;
+        }
+
+        @Override
+        protected Channel pollChannel() {
+            Channel channel = super.pollChannel();
+            if (channel != null) {
+                idleChannels.remove(channel);
+            }
+            return channel;
+        }
+
+        @Override
+        protected boolean offerChannel(Channel channel) {
+            if (idleChannels.size() >= config.getUpstreamMaxIdlePerHost()) {
+                return false;
+            }
+            if (super.offerChannel(channel)) {
+                idleChannels.add(channel);
+                return true;
+            }
+            return false;
+        }
+
+        private void onChannelClosed(Channel channel) {
+            if (evicted) {
+                return;
+            }
+            idleChannels.remove(channel);
+            release(channel).addListener(future -> evictIfUnused());
+        }
+
+        private void evictIfUnused() {
+            if (evicted || acquiredChannelCount() > 0 || !idleChannels.isEmpty()) {
+                return;
+            }
+            evicted = true;
+            poolMap.remove(key);
+        }
+
+        @Override
+        protected ChannelFuture connectChannel(Bootstrap bs) {
+            long startNanos = System.nanoTime();
+            ChannelFuture connectFuture = super.connectChannel(bs);
+            Channel channel = connectFuture.channel();
+            channel.attr(UPSTREAM_POOL_KEY).set(this);
+            channel.closeFuture().addListener(future -> onChannelClosed(channel));
+            // 先于连接池自身的监听器执行，借出时耗时已记录
+            connectFuture.addListener(future -> {
+                if (future.isSuccess()) {
+                    channel.attr(CONNECT_NANOS_KEY).set(System.nanoTime() - startNanos);
+                }
+            });
+            return connectFuture;
+        }
+    }
+
+    /**
+     * 目标连接生命周期处理：新建时初始化http编解码，借出/归还时切换空闲检测
+     */
+    private class UpstreamChannelPoolHandler extends AbstractChannelPoolHandler {
+        @Override
+        public void channelCreated(Channel ch) {
+            ch.pipeline().addLast(CHANNEL_HANDLER_HTTP_CLIENT_CODEC, new HttpClientCodec());
+            ch.pipeline().addLast(CHANNEL_HANDLER_PROXY_HTTP_BACKEND, new ProxyHttpBackendHandler(config.isFlushConsolidation()));
+        }
+
+        @Override
+        public void channelAcquired(Channel ch) {
+            if (ch.pipeline().get(CHANNEL_HANDLER_IDLE_STATE) != null) {
+                ch.pipeline().remove(CHANNEL_HANDLER_IDLE_STATE);
+            }
+            ch.attr(RELEASED_AT_KEY).set(null);
+        }
+
+        @Override
+        public void channelReleased(Channel ch) {
+            if (!ch.isActive()) {
+                return;
+            }
+            ch.attr(RELEASED_AT_KEY).set(System.currentTimeMillis());
+            // 空闲期间保持读取，及时感知服务端关闭连接
+            ch.config().setAutoRead(true);
+            ch.pipeline().addFirst(CHANNEL_HANDLER_IDLE_STATE,
+                    new IdleStateHandler(0, 0, config.getUpstreamIdleTimeoutSeconds(), TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.xbz.xproxy.netty;
+
+/**
+ * 普通http转发中目标channel写缓冲回落到低水位以下，在客户端pipeline上触发，
+ * 由{@link ProxyFrontendConnectHandler}判断是否可以恢复读取客户端数据
+ */
+public final class UpstreamWritableEvent {
+    public static final UpstreamWritableEvent INSTANCE = new UpstreamWritableEvent();
+
+    private UpstreamWritableEvent() {
+    }
+}
@@ -13,8 +13,58 @@ public class AppConfig {
      * dns列表
      */
     private List<String> dnsList;
+    /**
+     * 是否同时解析AAAA记录，探测并使用IPv6地址
+     */
+    private boolean ipv6 = true;
     /**
      * 固定的域名和IP列表
      */
     private Map<String, List<String>> fixedDomainIPsMap;
+    /**
+     * 域名IP检测的并发数，即同时进行解析与探测的最大域名数
+     */
+    private int refreshParallelism = 32;
+    /**
+     * 域名重新检测间隔的下限与上限（秒），间隔按dns记录的ttl计算并限制在此范围内，没有ttl的域名按上限
+     */
+    private int refreshMinIntervalSeconds = 60;
+    private int refreshMaxIntervalSeconds = 600;
+    /**
+     * 重新检测间隔的随机提前比例，分散各域名的检测时间
+     */
+    private double refreshJitter = 0.2;
+    /**
+     * 未检测到可用IP的域名的重试间隔下限与上限（秒），间隔随连续失败次数翻倍
+     */
+    private int retryMinIntervalSeconds = 10;
+    private int retryMaxIntervalSeconds = 600;
+    /**
+     * 每秒最多重试的未检测到可用IP的域名数，超出的顺延
+     */
+    private int retryBudget = 16;
+    /**
+     * IP探测端口，按顺序尝试
+     */
+    private List<Integer> probePorts = List.of(443, 80);
+    /**
+     * 每个IP的探测采样次数，按采样耗时中位数排序
+     */
+    private int probeSamples = 3;
+    /**
+     * 单次探测超时时间（毫秒）
+     */
+    private int probeTimeoutMillis = 1000;
+    /**
+     * 443端口探测是否同时测量TLS握手耗时
+     */
+    private boolean probeTls = false;
+    /**
+     * 是否额外执行ICMP ping记录ttl，作为探测耗时相同时的次要排序依据
+     */
+    private boolean probeIcmp = false;
+    /**
+     * 同一IP探测结果的缓存时间（秒），多个域名共用的IP在此时间内只探测一次
+     */
+    private int probeCacheTtlSeconds = 30;
 }
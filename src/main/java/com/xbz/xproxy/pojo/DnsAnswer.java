@@ -0,0 +1,29 @@
+package com.xbz.xproxy.pojo;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 域名解析结果
+ */
+@Data
+public class DnsAnswer {
+    private String domain;
+
+    /**
+     * 解析到的IP列表，多个dns的结果去重合并
+     */
+    private List<String> ipList = new ArrayList<>();
+
+    /**
+     * 解析记录的最小ttl（秒），没有记录时为-1
+     */
+    private long minTtlSeconds = -1;
+
+    /**
+     * 没有解析到IP的原因，解析到IP时为null
+     */
+    private ResolveFailureEnum failure;
+}
@@ -12,6 +12,21 @@ public class DomainIP {
 
     private List<DomainIPInfo> ipList;
 
+    /**
+     * 检测时间（毫秒）
+     */
+    private long refreshTime;
+
+    /**
+     * dns记录的最小ttl（秒），用于安排下次检测，未知时为-1
+     */
+    private long dnsTtlSeconds = -1;
+
+    /**
+     * 没有可用IP的原因，有可用IP时为null
+     */
+    private ResolveFailureEnum failure;
+
     public String getPrettyPrint() {
         StringBuilder sb = new StringBuilder();
         sb.append(domain).append("-->");
@@ -24,8 +39,16 @@ public class DomainIP {
                 boolean preferred = ipInfo.isPreferred();
                 sb.append("[");
                 sb.append(ip).append(preferred?"（首选）":"");
-                sb.append(",ttl=").append(ttl);
+                if (ipInfo.hasProbeRtt()) {
+                    sb.append(",probeRtt=").append(String.format("%.1fms", ipInfo.getProbeRttMillis()));
+                }
+                if (ttl != null) {
+                    sb.append(",ttl=").append(ttl);
+                }
                 sb.append(",connectErrTimes=").append(connectErrTimes);
+                if (ipInfo.hasConnectRtt()) {
+                    sb.append(",connectRtt=").append(String.format("%.1fms", ipInfo.getConnectRttEwmaMillis()));
+                }
                 sb.append("]");
                 if (i != ipList.size() - 1) {
                     sb.append(",");
@@ -3,6 +3,7 @@ package com.xbz.xproxy.pojo;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -10,17 +11,39 @@ import java.util.concurrent.atomic.AtomicInteger;
  * 属性解读<br>
  * <code>isPreferred</code>:是否为首选IP，需要维护首选IP列表（后续支持，由用户添加），如果当前IP是首选IP，那么将忽略<code>连接错误次数 connectErrTimes</code>
  * 强制IP选择使用此IP。<br>
- * <code>connectErrTimes</code>:连接错误次数,当前IP被用于进行连接时，记录此IP被访问时连接错误发生次数，当连接成功时，重置错误次数为0。该错误次数被用于判断当前IP是否应该被继续使用
+ * <code>connectErrTimes</code>:连接错误次数,当前IP被用于进行连接时，记录此IP被访问时连接错误发生次数，当连接成功时，重置错误次数为0。该错误次数被用于判断当前IP是否应该被继续使用<br>
+ * <code>connectRttEwmaMillis</code>:实际连接耗时的指数加权移动平均，由代理转发时的每次连接结果更新，连接失败按连接超时计入，用于IP排序<br>
+ * <code>probeRttMillis</code>:域名IP检测时TCP连接探测耗时的中位数，IP尚未被实际连接时用于排序<br>
+ * <code>ttl</code>:ICMP ping响应的剩余ttl，仅在开启ICMP探测时记录，作为次要排序依据，越大表示经过的跳数越少
  */
 @EqualsAndHashCode(of = "ip")
 @Data
 public class DomainIPInfo {
+    /**
+     * 连接耗时EWMA的新样本权重
+     */
+    private static final double RTT_EWMA_ALPHA = 0.3;
+    /**
+     * 连接失败时计入EWMA的耗时（毫秒），与连接超时一致
+     */
+    private static final double FAILURE_PENALTY_MILLIS = 5000;
+    /**
+     * 连续失败后的冷却时间基数与上限（毫秒），冷却时间随连续失败次数指数增长
+     */
+    private static final long COOLDOWN_BASE_MILLIS = 1000;
+    private static final long COOLDOWN_MAX_MILLIS = 60_000;
+
     private String domain;
 
     private String ip;
 
     private Integer ttl;
 
+    /**
+     * 连接探测耗时中位数（毫秒），未探测时为-1
+     */
+    private double probeRttMillis = -1;
+
     /**
      * 是否位首选IP
      */
@@ -31,6 +54,16 @@ public class DomainIPInfo {
      */
     private AtomicInteger connectErrTimes = new AtomicInteger(0);
 
+    /**
+     * 连接耗时的指数加权移动平均（毫秒），未测量时为-1
+     */
+    private volatile double connectRttEwmaMillis = -1;
+
+    /**
+     * 最近一次连接失败的时间（毫秒）
+     */
+    private volatile long lastConnectErrTime = 0;
+
     public void increConnectErrTimes() {
         connectErrTimes.incrementAndGet();
     }
@@ -38,4 +71,76 @@ public class DomainIPInfo {
     public void resetConnectErrTimes() {
         connectErrTimes.set(0);
     }
+
+    /**
+     * 记录一次连接成功及其耗时
+     *
+     * @param rttNanos TCP连接建立耗时（纳秒）
+     */
+    public synchronized void recordConnectSuccess(long rttNanos) {
+        resetConnectErrTimes();
+        updateRttEwma(rttNanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * 记录一次连接失败，失败按连接超时计入耗时，IP随即排到后面并进入冷却期
+     */
+    public synchronized void recordConnectFailure() {
+        increConnectErrTimes();
+        lastConnectErrTime = System.currentTimeMillis();
+        updateRttEwma(FAILURE_PENALTY_MILLIS);
+    }
+
+    private void updateRttEwma(double sampleMillis) {
+        double ewma = connectRttEwmaMillis;
+        connectRttEwmaMillis = ewma < 0 ? sampleMillis : ewma + RTT_EWMA_ALPHA * (sampleMillis - ewma);
+    }
+
+    /**
+     * 是否已有连接耗时测量值
+     */
+    public boolean hasConnectRtt() {
+        return connectRttEwmaMillis >= 0;
+    }
+
+    /**
+     * 是否已有连接探测耗时
+     */
+    public boolean hasProbeRtt() {
+        return probeRttMillis >= 0;
+    }
+
+    /**
+     * 是否为IPv6地址
+     */
+    public boolean isIpv6() {
+        return ip != null && ip.indexOf(':') >= 0;
+    }
+
+    /**
+     * 是否处于连续失败后的冷却期，冷却期内不参与IP选择
+     */
+    public boolean isCoolingDown(long nowMillis) {
+        return nowMillis - lastConnectErrTime < getCooldownMillis();
+    }
+
+    /**
+     * 当前连续失败对应的冷却时间（毫秒），为1秒起按连续失败次数翻倍，最长60秒，没有连续失败时为0
+     */
+    public long getCooldownMillis() {
+        int errTimes = connectErrTimes.get();
+        if (errTimes <= 0) {
+            return 0;
+        }
+        return Math.min(COOLDOWN_BASE_MILLIS << Math.min(errTimes - 1, 16), COOLDOWN_MAX_MILLIS);
+    }
+
+    /**
+     * 继承旧IP信息的连接统计，定时重新检测域名IP时保留已积累的连接结果
+     */
+    public void inheritConnectStats(DomainIPInfo old) {
+        this.connectErrTimes.set(old.getConnectErrTimes().get());
+        this.connectRttEwmaMillis = old.getConnectRttEwmaMillis();
+        this.lastConnectErrTime = old.getLastConnectErrTime();
+    }
 }
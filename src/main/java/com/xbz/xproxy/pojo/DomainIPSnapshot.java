@@ -0,0 +1,113 @@
+package com.xbz.xproxy.pojo;
+
+import lombok.Getter;
+
+import java.util.*;
+
+/**
+ * 域名IP转换数据的不可变快照<br>
+ * 更新时通过{@link #toBuilder()}复制当前快照，修改后生成新快照整体替换；读取方持有的快照不会被修改，无需加锁即可安全遍历。<br>
+ * 快照同时包含预先计算的路由表，域名IP未变化的路由在新快照中复用。
+ */
+@Getter
+public final class DomainIPSnapshot {
+    public static final DomainIPSnapshot EMPTY = new DomainIPSnapshot(Collections.emptyMap(), Collections.emptySet(), Collections.emptyMap());
+
+    /**
+     * 域名 -> 可用IP
+     */
+    private final Map<String, DomainIP> domainIPMap;
+
+    /**
+     * 未检测到可用IP的域名
+     */
+    private final Set<String> noResolveDomains;
+
+    /**
+     * 路由表：域名 -> 路由
+     */
+    private final Map<String, DomainRoute> routes;
+
+    private DomainIPSnapshot(Map<String, DomainIP> domainIPMap, Set<String> noResolveDomains, Map<String, DomainRoute> routes) {
+        this.domainIPMap = domainIPMap;
+        this.noResolveDomains = noResolveDomains;
+        this.routes = routes;
+    }
+
+    public DomainIP getDomainIP(String domain) {
+        return domainIPMap.get(domain);
+    }
+
+    /**
+     * 获取域名路由
+     *
+     * @return 未检测到可用IP的域名返回null
+     */
+    public DomainRoute getRoute(String domain) {
+        return routes.get(domain);
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * 快照构建器，非线程安全
+     */
+    public static final class Builder {
+        private final DomainIPSnapshot source;
+        private final Map<String, DomainIP> domainIPMap;
+        private final Set<String> noResolveDomains;
+
+        private Builder(DomainIPSnapshot snapshot) {
+            this.source = snapshot;
+            this.domainIPMap = new HashMap<>(snapshot.domainIPMap);
+            this.noResolveDomains = new LinkedHashSet<>(snapshot.noResolveDomains);
+        }
+
+        public DomainIP getDomainIP(String domain) {
+            return domainIPMap.get(domain);
+        }
+
+        /**
+         * 域名检测到可用IP：更新域名IP，并从未解析域名中移除
+         */
+        public Builder resolved(String domain, DomainIP domainIP) {
+            domainIPMap.put(domain, domainIP);
+            noResolveDomains.remove(domain);
+            return this;
+        }
+
+        /**
+         * 域名未检测到可用IP：移除域名IP，并加入未解析域名
+         */
+        public Builder unresolved(String domain) {
+            domainIPMap.remove(domain);
+            noResolveDomains.add(domain);
+            return this;
+        }
+
+        /**
+         * 只保留仍需检测的域名，移除其余域名的域名IP及未解析记录
+         */
+        public Builder retainDomains(Set<String> domains) {
+            domainIPMap.keySet().retainAll(domains);
+            noResolveDomains.retainAll(domains);
+            return this;
+        }
+
+        public DomainIPSnapshot build() {
+            Map<String, DomainRoute> routes = new HashMap<>(domainIPMap.size() * 4 / 3 + 1);
+            for (Map.Entry<String, DomainIP> entry : domainIPMap.entrySet()) {
+                DomainRoute route = source.routes.get(entry.getKey());
+                if (route == null || route.getDomainIP() != entry.getValue()) {
+                    route = new DomainRoute(entry.getValue());
+                }
+                routes.put(entry.getKey(), route);
+            }
+            return new DomainIPSnapshot(Collections.unmodifiableMap(new HashMap<>(domainIPMap)),
+                    Collections.unmodifiableSet(new LinkedHashSet<>(noResolveDomains)),
+                    Collections.unmodifiableMap(routes));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.xbz.xproxy.pojo;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 单个域名的路由：按优先级预先排好序的可用候选IP数组<br>
+ * 域名IP更新或连接统计变化后由发布线程重新排序并整体替换数组，eventLoop中选择IP只需一次volatile读和数组读取，
+ * 不遍历IP列表，也没有装箱与对象分配。<br>
+ * 同时有IPv4与IPv6地址时，两种地址族各自按优先级排序后交替排列（参考RFC 8305），最优IP所在的地址族在前，
+ * 竞速连接的第二个候选即为另一地址族的最优IP，某一地址族整体不通时只延迟一个错开间隔。
+ */
+public final class DomainRoute {
+    private static final DomainIPInfo[] EMPTY_CANDIDATES = new DomainIPInfo[0];
+    /**
+     * 候选IP优先级：首选IP在前，已有连接耗时的按耗时EWMA从小到大，尚未连接过的按探测耗时从小到大排在其后；
+     * 耗时相同时剩余ttl大的在前：剩余ttl越大经过的跳数越少，ttl小说明路径更长
+     */
+    private static final Comparator<DomainIPInfo> PRIORITY = Comparator.comparing(DomainIPInfo::isPreferred).reversed()
+            .thenComparing(DomainIPInfo::hasConnectRtt, Comparator.reverseOrder())
+            .thenComparingDouble(DomainIPInfo::getConnectRttEwmaMillis)
+            .thenComparing(DomainIPInfo::hasProbeRtt, Comparator.reverseOrder())
+            .thenComparingDouble(DomainIPInfo::getProbeRttMillis)
+            .thenComparing(DomainIPInfo::getTtl, Comparator.nullsLast(Comparator.reverseOrder()));
+
+    @Getter
+    private final DomainIP domainIP;
+
+    private volatile DomainIPInfo[] candidates;
+
+    public DomainRoute(DomainIP domainIP) {
+        this.domainIP = domainIP;
+        rerank(System.currentTimeMillis());
+    }
+
+    /**
+     * 最优IP
+     *
+     * @return 没有可用IP时返回null
+     */
+    public DomainIPInfo getBest() {
+        DomainIPInfo[] current = candidates;
+        return current.length > 0 ? current[0] : null;
+    }
+
+    /**
+     * 按优先级排序的可用候选IP，返回的数组为共享数组，调用方不得修改
+     */
+    public DomainIPInfo[] getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * 按当前连接统计重新排序，仅由发布线程调用
+     */
+    public void rerank(long nowMillis) {
+        List<DomainIPInfo> ranked = rank(domainIP.getIpList(), nowMillis);
+        candidates = ranked.isEmpty() ? EMPTY_CANDIDATES : ranked.toArray(EMPTY_CANDIDATES);
+    }
+
+    /**
+     * 过滤掉处于连续失败冷却期的非首选IP，按优先级排序，IPv4与IPv6地址交替排列
+     *
+     * @return 可用IP列表，没有可用IP时为空列表
+     */
+    public static List<DomainIPInfo> rank(List<DomainIPInfo> ipList, long nowMillis) {
+        if (ipList == null || ipList.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<DomainIPInfo> availableList = new ArrayList<>(ipList.size());
+        for (DomainIPInfo ipInfo : ipList) {
+            // 连接失败后进入冷却期，冷却期内此IP不被使用，冷却结束后按耗时重新参与排序
+            if (ipInfo.isPreferred() || !ipInfo.isCoolingDown(nowMillis)) {
+                availableList.add(ipInfo);
+            }
+        }
+        availableList.sort(PRIORITY);
+        return interleaveFamilies(availableList);
+    }
+
+    /**
+     * 已排序的IP按地址族交替排列，各地址族内保持原有顺序，第一个IP所在的地址族在前
+     */
+    private static List<DomainIPInfo> interleaveFamilies(List<DomainIPInfo> sortedList) {
+        if (sortedList.size() < 2) {
+            return sortedList;
+        }
+        boolean firstIpv6 = sortedList.get(0).isIpv6();
+        List<DomainIPInfo> first = new ArrayList<>(sortedList.size());
+        List<DomainIPInfo> second = new ArrayList<>(sortedList.size());
+        for (DomainIPInfo ipInfo : sortedList) {
+            (ipInfo.isIpv6() == firstIpv6 ? first : second).add(ipInfo);
+        }
+        if (second.isEmpty()) {
+            return sortedList;
+        }
+        List<DomainIPInfo> interleaved = new ArrayList<>(sortedList.size());
+        for (int i = 0; i < first.size() || i < second.size(); i++) {
+            if (i < first.size()) {
+                interleaved.add(first.get(i));
+            }
+            if (i < second.size()) {
+                interleaved.add(second.get(i));
+            }
+        }
+        return interleaved;
+    }
+}
@@ -0,0 +1,41 @@
+package com.xbz.xproxy.pojo;
+
+import lombok.Data;
+
+/**
+ * IP连接探测结果
+ */
+@Data
+public class ProbeResult {
+    private String ip;
+
+    /**
+     * 探测成功的端口
+     */
+    private int port;
+
+    /**
+     * 多次采样连接耗时的中位数（毫秒），包含TLS握手时为TCP连接+TLS握手耗时
+     */
+    private double rttMillis;
+
+    /**
+     * 成功的采样次数
+     */
+    private int successSamples;
+
+    /**
+     * 总采样次数
+     */
+    private int totalSamples;
+
+    /**
+     * 是否包含TLS握手耗时
+     */
+    private boolean tls;
+
+    /**
+     * ICMP ping的ttl，未开启ICMP探测或ping不通时为空
+     */
+    private Integer icmpTtl;
+}
@@ -0,0 +1,61 @@
+package com.xbz.xproxy.pojo;
+
+import com.xbz.xproxy.netty.TransportTypeEnum;
+import io.netty.channel.WriteBufferWaterMark;
+import lombok.Data;
+
+/**
+ * 代理服务器启动配置，来源于启动参数
+ */
+@Data
+public class ProxyServerConfig {
+    /**
+     * 监听地址
+     */
+    private String host = "0.0.0.0";
+    /**
+     * 监听端口
+     */
+    private int port = 8080;
+    /**
+     * 网络传输层，前端与后端连接共用
+     */
+    private TransportTypeEnum transport = TransportTypeEnum.NIO;
+    /**
+     * CONNECT隧道是否启用splice零拷贝，仅epoll传输层生效<br>
+     * splice的数据不经过pipeline，不计入转发字节数（运行指标与JFR隧道事件）
+     */
+    private boolean splice = true;
+    /**
+     * 写缓冲低水位（字节），转发方写缓冲回落到此值以下时恢复读取对端
+     */
+    private int writeBufferLowWaterMark = 32 * 1024;
+    /**
+     * 写缓冲高水位（字节），转发方写缓冲超过此值时暂停读取对端，单连接每个方向的缓冲内存以此为上限
+     */
+    private int writeBufferHighWaterMark = 64 * 1024;
+    /**
+     * 转发时是否合并flush：每次读取只write，一轮读取完成后统一flush，多个小包合并为一次writev系统调用
+     */
+    private boolean flushConsolidation = true;
+    /**
+     * CONNECT隧道多候选IP竞速连接时，追加连接下一个候选IP的间隔（毫秒），为0时只连接首选IP
+     */
+    private long connectStaggerMillis = 250;
+    /**
+     * 普通http转发时，每个eventLoop内单个目标地址（IP+端口）的最大连接数
+     */
+    private int upstreamMaxConnectionsPerHost = 32;
+    /**
+     * 普通http转发时，每个eventLoop内单个目标地址保留的最大空闲keep-alive连接数，为0时不复用连接
+     */
+    private int upstreamMaxIdlePerHost = 8;
+    /**
+     * 空闲keep-alive连接的超时时间（秒），超时后关闭
+     */
+    private int upstreamIdleTimeoutSeconds = 60;
+
+    public WriteBufferWaterMark getWriteBufferWaterMark() {
+        return new WriteBufferWaterMark(writeBufferLowWaterMark, writeBufferHighWaterMark);
+    }
+}
@@ -0,0 +1,35 @@
+package com.xbz.xproxy.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 域名未检测到可用IP的原因，多个dns服务器结果不一致时取排在前面的原因
+ */
+@Getter
+@AllArgsConstructor
+public enum ResolveFailureEnum {
+    /**
+     * dns服务器返回域名不存在
+     */
+    NXDOMAIN("域名不存在"),
+    /**
+     * dns服务器返回成功但A与AAAA均没有记录（未开启IPv6时只查询A记录）
+     */
+    NO_RECORD("没有A/AAAA记录"),
+    /**
+     * dns服务器返回错误，如SERVFAIL、REFUSED
+     */
+    DNS_ERROR("dns服务器返回错误"),
+    /**
+     * 所有dns服务器查询超时或失败
+     */
+    DNS_TIMEOUT("dns查询超时"),
+    /**
+     * 解析到IP但所有IP均不可达
+     */
+    UNREACHABLE("所有IP均不可达"),
+    ;
+
+    private final String name;
+}
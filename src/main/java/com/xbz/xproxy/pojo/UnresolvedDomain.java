@@ -0,0 +1,37 @@
+package com.xbz.xproxy.pojo;
+
+import lombok.Data;
+
+/**
+ * 未检测到可用IP的域名状态，按连续失败次数指数退避重试
+ */
+@Data
+public class UnresolvedDomain {
+    private String domain;
+
+    /**
+     * 最近一次失败的原因，检测异常时为null
+     */
+    private ResolveFailureEnum failure;
+
+    /**
+     * 连续失败次数
+     */
+    private int failTimes;
+
+    /**
+     * 最近一次失败的时间（毫秒）
+     */
+    private long lastFailTime;
+
+    /**
+     * 下次重试的时间（毫秒）
+     */
+    private long nextRetryTime;
+
+    public String getPrettyPrint() {
+        long retryAfterSeconds = Math.max(0, (nextRetryTime - System.currentTimeMillis()) / 1000);
+        return domain + "：" + (failure != null ? failure.getName() : "检测异常")
+                + "，连续失败" + failTimes + "次，" + retryAfterSeconds + "秒后重试";
+    }
+}
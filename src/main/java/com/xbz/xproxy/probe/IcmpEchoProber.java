@@ -0,0 +1,369 @@
+package com.xbz.xproxy.probe;
+
+import com.sun.jna.*;
+import com.sun.jna.platform.unix.LibCAPI;
+import lombok.AllArgsConstructor;
+import org.icmp4j.IcmpPingResponse;
+
+import java.io.Closeable;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 进程内ICMP echo探测器（linux）<br>
+ * 使用非特权ICMP套接字（<code>socket(AF_INET, SOCK_DGRAM, IPPROTO_ICMP)</code>），无需root权限，也不需要为每个IP创建ping进程。
+ * 所有请求共用一个套接字发送，由单个线程通过<code>poll</code>接收所有回复，按序号匹配请求，超时精确到毫秒。<br>
+ * 非特权ICMP套接字需要当前用户组在<code>net.ipv4.ping_group_range</code>范围内，不满足时{@link #open()}失败，调用方应回退到ping进程。
+ */
+public class IcmpEchoProber implements Closeable {
+    private static final int AF_INET = 2;
+    private static final int SOCK_DGRAM = 2;
+    private static final int IPPROTO_IP = 0;
+    private static final int IPPROTO_ICMP = 1;
+    private static final int IP_TTL = 2;
+    private static final int IP_RECVTTL = 12;
+    private static final short POLLIN = 0x1;
+    private static final int MSG_DONTWAIT = 0x40;
+    private static final int EINTR = 4;
+
+    private static final byte ICMP_ECHO_REPLY = 0;
+    private static final byte ICMP_ECHO_REQUEST = 8;
+    /**
+     * ICMP头长度
+     */
+    private static final int ICMP_HEADER_SIZE = 8;
+    /**
+     * echo请求数据长度，与原ping请求一致
+     */
+    private static final int PAYLOAD_SIZE = 32;
+    /**
+     * 有待回复请求时单次poll的最长等待时间（毫秒）
+     */
+    private static final int MAX_POLL_MILLIS = 50;
+
+    private final LibC libC;
+    private final int fd;
+    /**
+     * 待回复请求，key为echo序号
+     */
+    private final Map<Integer, PendingEcho> pendingMap = new ConcurrentHashMap<>();
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final Thread receiveThread;
+    private volatile boolean closed = false;
+
+    // 以下缓冲区仅在接收线程中使用
+    private final Memory receiveBuffer = new Memory(ICMP_HEADER_SIZE + PAYLOAD_SIZE + 64);
+    private final Memory controlBuffer = new Memory(64);
+    private final SockAddrIn receiveAddr = new SockAddrIn();
+    private final IoVec receiveIoVec = new IoVec();
+    private final MsgHdr receiveMsgHdr = new MsgHdr();
+    private final PollFd pollFd = new PollFd();
+
+    private IcmpEchoProber(LibC libC, int fd) {
+        this.libC = libC;
+        this.fd = fd;
+        receiveIoVec.iov_base = receiveBuffer;
+        receiveIoVec.iov_len = new LibCAPI.size_t(receiveBuffer.size());
+        receiveIoVec.write();
+        pollFd.fd = fd;
+        pollFd.events = POLLIN;
+        this.receiveThread = new Thread(this::receiveLoop, "IcmpProbe");
+        this.receiveThread.setDaemon(true);
+        this.receiveThread.start();
+    }
+
+    /**
+     * 创建探测器
+     *
+     * @throws IllegalStateException 非linux平台或无法创建非特权ICMP套接字
+     */
+    public static IcmpEchoProber open() {
+        if (!Platform.isLinux()) {
+            throw new IllegalStateException("非特权ICMP套接字仅支持linux");
+        }
+        LibC libC = Native.load("c", LibC.class);
+        int fd = libC.socket(AF_INET, SOCK_DGRAM, IPPROTO_ICMP);
+        if (fd < 0) {
+            throw new IllegalStateException("创建ICMP套接字失败，errno=" + Native.getLastError()
+                    + "，请检查net.ipv4.ping_group_range");
+        }
+        // 接收回复时同时获取IP头中的ttl
+        if (libC.setsockopt(fd, IPPROTO_IP, IP_RECVTTL, new int[]{1}, 4) != 0) {
+            int errno = Native.getLastError();
+            libC.close(fd);
+            throw new IllegalStateException("设置IP_RECVTTL失败，errno=" + errno);
+        }
+        return new IcmpEchoProber(libC, fd);
+    }
+
+    /**
+     * 发送一个echo请求
+     *
+     * @param ip            目标IPv4地址
+     * @param timeoutMillis 超时时间（毫秒）
+     * @return 探测结果，成功时包含rtt和回复的ttl，超时时timeoutFlag为true
+     */
+    public CompletableFuture<IcmpPingResponse> ping(String ip, int timeoutMillis) {
+        CompletableFuture<IcmpPingResponse> future = new CompletableFuture<>();
+        byte[] address;
+        try {
+            InetAddress inetAddress = InetAddress.getByName(ip);
+            if (!(inetAddress instanceof Inet4Address)) {
+                future.complete(failure(ip, "仅支持IPv4地址", 0));
+                return future;
+            }
+            address = inetAddress.getAddress();
+        } catch (Exception e) {
+            future.complete(failure(ip, e.getMessage(), 0));
+            return future;
+        }
+        if (closed) {
+            future.complete(failure(ip, "ICMP探测器已关闭", 0));
+            return future;
+        }
+
+        long startNanos = System.nanoTime();
+        PendingEcho pending = new PendingEcho(ip, startNanos, startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis), future);
+        int seq = nextSequence(pending);
+
+        byte[] packet = new byte[ICMP_HEADER_SIZE + PAYLOAD_SIZE];
+        packet[0] = ICMP_ECHO_REQUEST;
+        // 标识符与校验和由内核填写
+        packet[6] = (byte) (seq >> 8);
+        packet[7] = (byte) seq;
+        SockAddrIn targetAddr = new SockAddrIn();
+        targetAddr.sin_family = AF_INET;
+        targetAddr.sin_addr = address;
+        targetAddr.write();
+        long sent = libC.sendto(fd, packet, new LibCAPI.size_t(packet.length), 0, targetAddr.getPointer(), targetAddr.size()).longValue();
+        if (sent < 0) {
+            pendingMap.remove(seq);
+            future.complete(failure(ip, "发送ICMP请求失败，errno=" + Native.getLastError(), System.nanoTime() - startNanos));
+            return future;
+        }
+        LockSupport.unpark(receiveThread);
+        return future;
+    }
+
+    /**
+     * 分配一个未被待回复请求占用的16位序号
+     */
+    private int nextSequence(PendingEcho pending) {
+        while (true) {
+            int seq = sequence.getAndIncrement() & 0xFFFF;
+            if (pendingMap.putIfAbsent(seq, pending) == null) {
+                return seq;
+            }
+        }
+    }
+
+    private void receiveLoop() {
+        while (!closed) {
+            if (pendingMap.isEmpty()) {
+                LockSupport.park(this);
+                continue;
+            }
+            long now = System.nanoTime();
+            long earliestDeadline = Long.MAX_VALUE;
+            for (PendingEcho pending : pendingMap.values()) {
+                earliestDeadline = Math.min(earliestDeadline, pending.deadlineNanos);
+            }
+            int pollMillis = (int) Math.max(0, Math.min(MAX_POLL_MILLIS,
+                    TimeUnit.NANOSECONDS.toMillis(earliestDeadline - now + TimeUnit.MILLISECONDS.toNanos(1) - 1)));
+            pollFd.revents = 0;
+            pollFd.write();
+            int ready = libC.poll(pollFd.getPointer(), 1, pollMillis);
+            if (ready < 0 && Native.getLastError() != EINTR) {
+                System.err.println("ICMP探测poll失败，errno=" + Native.getLastError());
+            }
+            if (ready > 0) {
+                receiveReplies();
+            }
+            expireTimeouts();
+        }
+    }
+
+    /**
+     * 读取套接字中所有已到达的回复
+     */
+    private void receiveReplies() {
+        while (true) {
+            receiveMsgHdr.msg_name = receiveAddr.getPointer();
+            receiveMsgHdr.msg_namelen = receiveAddr.size();
+            receiveMsgHdr.msg_iov = receiveIoVec.getPointer();
+            receiveMsgHdr.msg_iovlen = new LibCAPI.size_t(1);
+            receiveMsgHdr.msg_control = controlBuffer;
+            receiveMsgHdr.msg_controllen = new LibCAPI.size_t(controlBuffer.size());
+            receiveMsgHdr.msg_flags = 0;
+            receiveMsgHdr.write();
+            long received = libC.recvmsg(fd, receiveMsgHdr.getPointer(), MSG_DONTWAIT).longValue();
+            if (received < 0) {
+                return;
+            }
+            long nowNanos = System.nanoTime();
+            if (received < ICMP_HEADER_SIZE || receiveBuffer.getByte(0) != ICMP_ECHO_REPLY) {
+                continue;
+            }
+            int seq = ((receiveBuffer.getByte(6) & 0xFF) << 8) | (receiveBuffer.getByte(7) & 0xFF);
+            PendingEcho pending = pendingMap.get(seq);
+            if (pending == null) {
+                continue;
+            }
+            receiveAddr.read();
+            String fromIp;
+            try {
+                fromIp = InetAddress.getByAddress(receiveAddr.sin_addr).getHostAddress();
+            } catch (Exception e) {
+                continue;
+            }
+            if (!fromIp.equals(pending.ip) || !pendingMap.remove(seq, pending)) {
+                continue;
+            }
+            receiveMsgHdr.read();
+            IcmpPingResponse response = new IcmpPingResponse();
+            response.setSuccessFlag(true);
+            response.setHost(fromIp);
+            response.setSize((int) received - ICMP_HEADER_SIZE);
+            response.setTtl(readTtl(receiveMsgHdr.msg_controllen.longValue()));
+            long elapsedNanos = nowNanos - pending.startNanos;
+            response.setRtt((int) TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            response.setDuration(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            pending.future.complete(response);
+        }
+    }
+
+    /**
+     * 从控制消息中读取IP_TTL
+     *
+     * @return ttl，不存在时返回0
+     */
+    private int readTtl(long controlLength) {
+        int sizeT = Native.SIZE_T_SIZE;
+        // cmsghdr: size_t cmsg_len; int cmsg_level; int cmsg_type; 数据按size_t对齐
+        int headerSize = align(sizeT + 8, sizeT);
+        long offset = 0;
+        while (offset + headerSize <= controlLength) {
+            long cmsgLen = sizeT == 8 ? controlBuffer.getLong(offset) : controlBuffer.getInt(offset);
+            if (cmsgLen < headerSize) {
+                break;
+            }
+            int level = controlBuffer.getInt(offset + sizeT);
+            int type = controlBuffer.getInt(offset + sizeT + 4);
+            if (level == IPPROTO_IP && type == IP_TTL) {
+                return controlBuffer.getInt(offset + headerSize);
+            }
+            offset += align((int) cmsgLen, sizeT);
+        }
+        return 0;
+    }
+
+    private static int align(int length, int alignment) {
+        return (length + alignment - 1) & ~(alignment - 1);
+    }
+
+    private void expireTimeouts() {
+        long nowNanos = System.nanoTime();
+        for (Map.Entry<Integer, PendingEcho> entry : pendingMap.entrySet()) {
+            PendingEcho pending = entry.getValue();
+            if (nowNanos - pending.deadlineNanos >= 0 && pendingMap.remove(entry.getKey(), pending)) {
+                IcmpPingResponse response = failure(pending.ip, "请求超时", nowNanos - pending.startNanos);
+                response.setTimeoutFlag(true);
+                pending.future.complete(response);
+            }
+        }
+    }
+
+    private static IcmpPingResponse failure(String ip, String errorMessage, long elapsedNanos) {
+        IcmpPingResponse response = new IcmpPingResponse();
+        response.setSuccessFlag(false);
+        response.setHost(ip);
+        response.setErrorMessage(errorMessage);
+        response.setDuration(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        return response;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(receiveThread);
+        try {
+            receiveThread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        libC.close(fd);
+        for (PendingEcho pending : pendingMap.values()) {
+            pending.future.complete(failure(pending.ip, "ICMP探测器已关闭", System.nanoTime() - pending.startNanos));
+        }
+        pendingMap.clear();
+    }
+
+    /**
+     * 待回复的echo请求
+     */
+    @AllArgsConstructor
+    private static class PendingEcho {
+        private final String ip;
+        private final long startNanos;
+        private final long deadlineNanos;
+        private final CompletableFuture<IcmpPingResponse> future;
+    }
+
+    /**
+     * 用到的libc函数
+     */
+    public interface LibC extends Library {
+        int socket(int domain, int type, int protocol);
+
+        int setsockopt(int fd, int level, int optname, int[] optval, int optlen);
+
+        LibCAPI.ssize_t sendto(int fd, byte[] buf, LibCAPI.size_t len, int flags, Pointer destAddr, int addrLen);
+
+        LibCAPI.ssize_t recvmsg(int fd, Pointer msg, int flags);
+
+        int poll(Pointer fds, int nfds, int timeout);
+
+        int close(int fd);
+    }
+
+    @Structure.FieldOrder({"sin_family", "sin_port", "sin_addr", "sin_zero"})
+    public static class SockAddrIn extends Structure {
+        public short sin_family;
+        public short sin_port;
+        public byte[] sin_addr = new byte[4];
+        public byte[] sin_zero = new byte[8];
+    }
+
+    @Structure.FieldOrder({"iov_base", "iov_len"})
+    public static class IoVec extends Structure {
+        public Pointer iov_base;
+        public LibCAPI.size_t iov_len;
+    }
+
+    @Structure.FieldOrder({"msg_name", "msg_namelen", "msg_iov", "msg_iovlen", "msg_control", "msg_controllen", "msg_flags"})
+    public static class MsgHdr extends Structure {
+        public Pointer msg_name;
+        public int msg_namelen;
+        public Pointer msg_iov;
+        public LibCAPI.size_t msg_iovlen;
+        public Pointer msg_control;
+        public LibCAPI.size_t msg_controllen;
+        public int msg_flags;
+    }
+
+    @Structure.FieldOrder({"fd", "events", "revents"})
+    public static class PollFd extends Structure {
+        public int fd;
+        public short events;
+        public short revents;
+    }
+}
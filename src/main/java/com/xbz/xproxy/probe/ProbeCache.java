@@ -0,0 +1,92 @@
+package com.xbz.xproxy.probe;
+
+import com.xbz.xproxy.pojo.ProbeResult;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 按IP缓存的探测结果<br>
+ * 多个域名解析到同一IP（如同一CDN）时，一轮检测中每个IP只探测一次，结果分发给所有使用该IP的域名：
+ * 同一IP进行中的探测由后续请求共用（single-flight），完成后的结果在{@code ttlMillis}内直接复用。
+ * 不可达（结果为null）同样缓存，探测异常不缓存。<br>
+ * 探测连接耗时是IP的属性，TLS握手使用首个请求域名的SNI，对同一IP的其他域名同样适用。
+ */
+public class ProbeCache {
+    /**
+     * 缓存条目超过此数量时清理过期条目
+     */
+    private static final int SWEEP_THRESHOLD = 4096;
+
+    private final long ttlMillis;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * 实际发起的探测次数
+     */
+    private final LongAdder probeCount = new LongAdder();
+
+    /**
+     * @param ttlMillis 探测完成后结果的缓存时间（毫秒），为0时只合并同时进行的探测
+     */
+    public ProbeCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * 获取IP的探测结果，没有可用缓存时调用{@code prober}探测
+     *
+     * @param ip     目标IP
+     * @param prober 探测方法
+     * @return 探测结果，多个调用方共用，不可修改
+     */
+    public CompletableFuture<ProbeResult> get(String ip, Supplier<CompletableFuture<ProbeResult>> prober) {
+        long now = System.currentTimeMillis();
+        Entry created = new Entry();
+        Entry entry = entries.compute(ip, (key, old) -> old != null && !old.isExpired(now) ? old : created);
+        if (entry != created) {
+            return entry.future;
+        }
+        probeCount.increment();
+        if (entries.size() > SWEEP_THRESHOLD) {
+            entries.values().removeIf(e -> e.isExpired(now));
+        }
+        CompletableFuture<ProbeResult> probeFuture;
+        try {
+            probeFuture = prober.get();
+        } catch (Exception e) {
+            probeFuture = CompletableFuture.failedFuture(e);
+        }
+        probeFuture.whenComplete((probeResult, e) -> {
+            if (e != null) {
+                entries.remove(ip, created);
+                created.future.completeExceptionally(e);
+                return;
+            }
+            created.expireTime = System.currentTimeMillis() + ttlMillis;
+            created.future.complete(probeResult);
+        });
+        return created.future;
+    }
+
+    /**
+     * 实际发起的探测次数，缓存命中不计入
+     */
+    public long getProbeCount() {
+        return probeCount.sum();
+    }
+
+    private static class Entry {
+        private final CompletableFuture<ProbeResult> future = new CompletableFuture<>();
+        /**
+         * 过期时间，探测进行中不过期
+         */
+        private volatile long expireTime = Long.MAX_VALUE;
+
+        boolean isExpired(long now) {
+            return expireTime <= now;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.xbz.xproxy.probe;
+
+import com.xbz.xproxy.pojo.ProbeResult;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import javax.net.ssl.SSLException;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IP连接耗时探测器<br>
+ * 使用非阻塞连接测量到目标IP指定端口的TCP连接建立耗时（443端口可选同时测量TLS握手耗时），
+ * 同一IP多次采样取中位数，避免单次抖动影响排序。与ICMP ping相比，测量的是代理实际转发时的连接开销，
+ * 且不受CDN丢弃ICMP报文的影响。<br>
+ * 端口按配置顺序尝试，第一个连接成功的端口用于全部采样；所有端口均无法连接时认为IP不可用。
+ */
+public class TcpConnectProber implements Closeable {
+    /**
+     * 测量TLS握手耗时的端口
+     */
+    private static final int TLS_PORT = 443;
+    /**
+     * 探测连接不需要处理任何数据，ChannelInitializer可共享
+     */
+    private static final ChannelHandler EMPTY_INITIALIZER = new ChannelInitializer<Channel>() {
+        @Override
+        protected void initChannel(Channel ch) {
+        }
+    };
+
+    private final List<Integer> ports;
+    private final int samples;
+    private final int timeoutMillis;
+    /**
+     * 不测量TLS握手时为空
+     */
+    private final SslContext sslContext;
+    private final EventLoopGroup group;
+    private final Bootstrap bootstrap;
+
+    /**
+     * @param ports         探测端口，按顺序尝试
+     * @param samples       每个IP的采样次数
+     * @param timeoutMillis 单次连接（及TLS握手）超时时间（毫秒）
+     * @param tls           443端口是否同时测量TLS握手耗时
+     */
+    public TcpConnectProber(List<Integer> ports, int samples, int timeoutMillis, boolean tls) {
+        this.ports = ports;
+        this.samples = Math.max(samples, 1);
+        this.timeoutMillis = timeoutMillis;
+        this.sslContext = tls ? newSslContext() : null;
+        this.group = new MultiThreadIoEventLoopGroup(1, new DefaultThreadFactory("IPProbe", true), NioIoHandler.newFactory());
+        this.bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, timeoutMillis)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(EMPTY_INITIALIZER);
+    }
+
+    private static SslContext newSslContext() {
+        try {
+            // 只测量握手耗时，不校验证书
+            return SslContextBuilder.forClient().trustManager(InsecureTrustManagerFactory.INSTANCE).build();
+        } catch (SSLException e) {
+            throw new IllegalStateException("TLS探测初始化失败", e);
+        }
+    }
+
+    /**
+     * 探测IP的连接耗时
+     *
+     * @param domain 域名，TLS握手时用作SNI
+     * @param ip     目标IP
+     * @return 探测结果，所有端口均无法连接时结果为null
+     */
+    public CompletableFuture<ProbeResult> probe(String domain, String ip) {
+        return probePort(domain, ip, 0);
+    }
+
+    private CompletableFuture<ProbeResult> probePort(String domain, String ip, int portIndex) {
+        if (portIndex >= ports.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        int port = ports.get(portIndex);
+        return sample(domain, ip, port).thenCompose(firstNanos -> {
+            if (firstNanos < 0) {
+                return probePort(domain, ip, portIndex + 1);
+            }
+            List<Long> sampleNanos = new ArrayList<>(samples);
+            sampleNanos.add(firstNanos);
+            return collectSamples(domain, ip, port, sampleNanos)
+                    .thenApply(list -> toResult(ip, port, list));
+        });
+    }
+
+    /**
+     * 依次采样，避免同一IP的并发连接相互干扰
+     */
+    private CompletableFuture<List<Long>> collectSamples(String domain, String ip, int port, List<Long> sampleNanos) {
+        if (sampleNanos.size() >= samples) {
+            return CompletableFuture.completedFuture(sampleNanos);
+        }
+        return sample(domain, ip, port).thenCompose(nanos -> {
+            sampleNanos.add(nanos);
+            return collectSamples(domain, ip, port, sampleNanos);
+        });
+    }
+
+    /**
+     * 单次采样
+     *
+     * @return 连接（及TLS握手）耗时（纳秒），失败返回-1
+     */
+    private CompletableFuture<Long> sample(String domain, String ip, int port) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        long startNanos = System.nanoTime();
+        ChannelFuture connectFuture;
+        try {
+            connectFuture = bootstrap.connect(ip, port);
+        } catch (Exception e) {
+            result.complete(-1L);
+            return result;
+        }
+        connectFuture.addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                result.complete(-1L);
+                return;
+            }
+            Channel channel = future.channel();
+            if (sslContext == null || port != TLS_PORT) {
+                result.complete(System.nanoTime() - startNanos);
+                channel.close();
+                return;
+            }
+            SslHandler sslHandler = sslContext.newHandler(channel.alloc(), domain, port);
+            sslHandler.setHandshakeTimeoutMillis(timeoutMillis);
+            channel.pipeline().addLast(sslHandler);
+            sslHandler.handshakeFuture().addListener(handshakeFuture -> {
+                result.complete(handshakeFuture.isSuccess() ? System.nanoTime() - startNanos : -1L);
+                channel.close();
+            });
+        });
+        return result;
+    }
+
+    /**
+     * 汇总采样结果，失败的采样按超时时间计入，偶发失败的IP排序靠后
+     */
+    private ProbeResult toResult(String ip, int port, List<Long> sampleNanos) {
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        List<Long> sorted = new ArrayList<>(sampleNanos.size());
+        int successSamples = 0;
+        for (Long nanos : sampleNanos) {
+            if (nanos >= 0) {
+                successSamples++;
+                sorted.add(nanos);
+            } else {
+                sorted.add(timeoutNanos);
+            }
+        }
+        Collections.sort(sorted);
+        ProbeResult probeResult = new ProbeResult();
+        probeResult.setIp(ip);
+        probeResult.setPort(port);
+        probeResult.setRttMillis(median(sorted) / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        probeResult.setSuccessSamples(successSamples);
+        probeResult.setTotalSamples(sampleNanos.size());
+        probeResult.setTls(sslContext != null && port == TLS_PORT);
+        return probeResult;
+    }
+
+    private static double median(List<Long> sorted) {
+        int size = sorted.size();
+        if (size % 2 == 1) {
+            return sorted.get(size / 2);
+        }
+        return (sorted.get(size / 2 - 1) + sorted.get(size / 2)) / 2.0;
+    }
+
+    @Override
+    public void close() {
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+    }
+}
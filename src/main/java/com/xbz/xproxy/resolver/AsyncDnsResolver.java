@@ -0,0 +1,296 @@
+package com.xbz.xproxy.resolver;
+
+import com.xbz.xproxy.pojo.DnsAnswer;
+import com.xbz.xproxy.pojo.ResolveFailureEnum;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AddressedEnvelope;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.dns.*;
+import io.netty.resolver.dns.DnsNameResolver;
+import io.netty.resolver.dns.DnsNameResolverBuilder;
+import io.netty.resolver.dns.DnsNameResolverChannelStrategy;
+import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
+import io.netty.util.NetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 非阻塞域名解析器<br>
+ * 基于netty的{@link DnsNameResolver}，每个dns服务器对应一个解析器，同一dns服务器的所有查询共用一个UDP套接字，
+ * 查询全部在单个eventLoop中异步发出并按查询ID匹配响应，不占用等待线程。
+ * 大量域名×多个dns服务器可以同时发出，整体耗时接近单次dns往返时间；
+ * 为避免突发查询超出套接字缓冲或dns服务器限速而丢包，每个dns服务器同时进行的查询数有上限，超出的排队等待，超时的查询重试一次。
+ */
+public class AsyncDnsResolver implements Closeable {
+    private static final int DNS_PORT = 53;
+    /**
+     * 单次查询超时时间（毫秒）
+     */
+    private static final long QUERY_TIMEOUT_MILLIS = 3000;
+    /**
+     * 每个dns服务器同时进行的最大查询数
+     */
+    private static final int MAX_IN_FLIGHT_QUERIES = 64;
+    /**
+     * 单个查询的最大尝试次数
+     */
+    private static final int MAX_QUERY_ATTEMPTS = 2;
+
+    private final EventLoopGroup group;
+    private final EventLoop eventLoop;
+    /**
+     * dns服务器 -> 解析器
+     */
+    private final Map<String, ServerResolver> resolverMap = new ConcurrentHashMap<>();
+
+    public AsyncDnsResolver() {
+        this.group = new MultiThreadIoEventLoopGroup(1, new DefaultThreadFactory("DnsResolve", true), NioIoHandler.newFactory());
+        this.eventLoop = group.next();
+    }
+
+    /**
+     * dns服务器地址，支持<code>IP</code>或<code>IP:端口</code>格式，默认53端口
+     */
+    private static InetSocketAddress toDnsServerAddress(String dns) {
+        int colonIndex = dns.indexOf(':');
+        if (colonIndex > 0 && colonIndex == dns.lastIndexOf(':')) {
+            return new InetSocketAddress(dns.substring(0, colonIndex), Integer.parseInt(dns.substring(colonIndex + 1)));
+        }
+        return new InetSocketAddress(dns, DNS_PORT);
+    }
+
+    private ServerResolver newResolver(String dns) {
+        return new ServerResolver(new DnsNameResolverBuilder(eventLoop)
+                .datagramChannelType(NioDatagramChannel.class)
+                .datagramChannelStrategy(DnsNameResolverChannelStrategy.ChannelPerResolver)
+                .nameServerProvider(new SingletonDnsServerAddressStreamProvider(toDnsServerAddress(dns)))
+                .queryTimeoutMillis(QUERY_TIMEOUT_MILLIS)
+                .recursionDesired(true)
+                .build());
+    }
+
+    /**
+     * 通过多个dns服务器解析域名的A记录，结果去重合并，单个dns服务器失败不影响其他结果
+     *
+     * @param domain  域名
+     * @param dnsList dns服务器列表
+     * @return 解析结果，所有dns服务器都失败时为空结果，失败原因为{@link ResolveFailureEnum#DNS_TIMEOUT}
+     */
+    public CompletableFuture<DnsAnswer> resolve(String domain, List<String> dnsList) {
+        return resolve(domain, dnsList, false);
+    }
+
+    /**
+     * 通过多个dns服务器解析域名的A记录，可同时解析AAAA记录，结果去重合并，IPv4地址在前；
+     * 单个dns服务器或单个记录类型失败不影响其他结果
+     *
+     * @param domain  域名
+     * @param dnsList dns服务器列表
+     * @param ipv6    是否同时解析AAAA记录
+     * @return 解析结果，所有查询都失败时为空结果，失败原因为{@link ResolveFailureEnum#DNS_TIMEOUT}
+     */
+    public CompletableFuture<DnsAnswer> resolve(String domain, List<String> dnsList, boolean ipv6) {
+        List<DnsRecordType> types = ipv6 ? List.of(DnsRecordType.A, DnsRecordType.AAAA) : List.of(DnsRecordType.A);
+        List<CompletableFuture<DnsAnswer>> futures = new ArrayList<>(dnsList.size() * types.size());
+        for (DnsRecordType type : types) {
+            for (String dns : dnsList) {
+                futures.add(resolve(domain, dns, type).exceptionally(e -> {
+                    System.err.println("域名解析[" + domain + "@" + dns + "(" + type.name() + ")]失败：" + e.getMessage());
+                    return null;
+                }));
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            LinkedHashSet<String> ipSet = new LinkedHashSet<>();
+            long minTtlSeconds = -1;
+            ResolveFailureEnum failure = ResolveFailureEnum.DNS_TIMEOUT;
+            for (CompletableFuture<DnsAnswer> future : futures) {
+                DnsAnswer answer = future.join();
+                if (answer == null) {
+                    continue;
+                }
+                if (answer.getFailure() != null && answer.getFailure().ordinal() < failure.ordinal()) {
+                    failure = answer.getFailure();
+                }
+                ipSet.addAll(answer.getIpList());
+                if (answer.getMinTtlSeconds() >= 0) {
+                    minTtlSeconds = minTtlSeconds < 0 ? answer.getMinTtlSeconds() : Math.min(minTtlSeconds, answer.getMinTtlSeconds());
+                }
+            }
+            DnsAnswer merged = new DnsAnswer();
+            merged.setDomain(domain);
+            merged.setIpList(new ArrayList<>(ipSet));
+            merged.setMinTtlSeconds(minTtlSeconds);
+            merged.setFailure(ipSet.isEmpty() ? failure : null);
+            return merged;
+        });
+    }
+
+    /**
+     * 通过指定dns服务器解析域名的A记录
+     *
+     * @param domain 域名
+     * @param dns    dns服务器，<code>IP</code>或<code>IP:端口</code>
+     * @return 解析结果，域名不存在时为空结果，查询超时等错误时异常完成
+     */
+    public CompletableFuture<DnsAnswer> resolve(String domain, String dns) {
+        return resolve(domain, dns, DnsRecordType.A);
+    }
+
+    /**
+     * 通过指定dns服务器解析域名的A或AAAA记录
+     *
+     * @param domain 域名
+     * @param dns    dns服务器，<code>IP</code>或<code>IP:端口</code>
+     * @param type   {@link DnsRecordType#A}或{@link DnsRecordType#AAAA}
+     * @return 解析结果，域名不存在时为空结果，查询超时等错误时异常完成
+     */
+    public CompletableFuture<DnsAnswer> resolve(String domain, String dns, DnsRecordType type) {
+        CompletableFuture<DnsAnswer> result = new CompletableFuture<>();
+        ServerResolver resolver;
+        try {
+            resolver = resolverMap.computeIfAbsent(dns, this::newResolver);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        eventLoop.execute(() -> resolver.submit(new PendingQuery(domain, type, result)));
+        return result;
+    }
+
+    /**
+     * 提取响应中查询类型（A或AAAA）的记录，CNAME链由递归dns服务器展开在应答中，只需取其中的地址记录
+     */
+    private static DnsAnswer toAnswer(String domain, DnsRecordType type, DnsResponse response) throws UnknownHostException {
+        DnsAnswer answer = new DnsAnswer();
+        answer.setDomain(domain);
+        if (response.code() != DnsResponseCode.NOERROR) {
+            answer.setFailure(response.code() == DnsResponseCode.NXDOMAIN ? ResolveFailureEnum.NXDOMAIN : ResolveFailureEnum.DNS_ERROR);
+            return answer;
+        }
+        LinkedHashSet<String> ipSet = new LinkedHashSet<>();
+        long minTtlSeconds = -1;
+        int addressLength = type == DnsRecordType.AAAA ? 16 : 4;
+        int count = response.count(DnsSection.ANSWER);
+        for (int i = 0; i < count; i++) {
+            DnsRecord record = response.recordAt(DnsSection.ANSWER, i);
+            if (record.type() != type || !(record instanceof DnsRawRecord)) {
+                continue;
+            }
+            ByteBuf content = ((DnsRawRecord) record).content();
+            if (content.readableBytes() != addressLength) {
+                continue;
+            }
+            byte[] address = new byte[addressLength];
+            content.getBytes(content.readerIndex(), address);
+            // IPv6地址使用RFC 5952压缩格式，与配置及日志中的写法一致
+            ipSet.add(NetUtil.toAddressString(InetAddress.getByAddress(address)));
+            minTtlSeconds = minTtlSeconds < 0 ? record.timeToLive() : Math.min(minTtlSeconds, record.timeToLive());
+        }
+        answer.setIpList(new ArrayList<>(ipSet));
+        answer.setMinTtlSeconds(minTtlSeconds);
+        if (ipSet.isEmpty()) {
+            answer.setFailure(ResolveFailureEnum.NO_RECORD);
+        }
+        return answer;
+    }
+
+    /**
+     * 待执行的查询
+     */
+    private static class PendingQuery {
+        private final String domain;
+        private final DnsRecordType type;
+        private final CompletableFuture<DnsAnswer> result;
+        private int attempts = 0;
+
+        PendingQuery(String domain, DnsRecordType type, CompletableFuture<DnsAnswer> result) {
+            this.domain = domain;
+            this.type = type;
+            this.result = result;
+        }
+    }
+
+    /**
+     * 单个dns服务器的解析器，限制同时进行的查询数，所有方法都在{@code eventLoop}中执行
+     */
+    private static class ServerResolver {
+        private final DnsNameResolver resolver;
+        private final Deque<PendingQuery> waitingQueries = new ArrayDeque<>();
+        private int inFlight = 0;
+
+        ServerResolver(DnsNameResolver resolver) {
+            this.resolver = resolver;
+        }
+
+        void submit(PendingQuery query) {
+            if (inFlight >= MAX_IN_FLIGHT_QUERIES) {
+                waitingQueries.add(query);
+                return;
+            }
+            inFlight++;
+            query.attempts++;
+            resolver.query(new DefaultDnsQuestion(query.domain, query.type)).addListener(
+                    (FutureListener<AddressedEnvelope<DnsResponse, InetSocketAddress>>) future -> {
+                        inFlight--;
+                        onQueryComplete(query, future);
+                        PendingQuery next = waitingQueries.poll();
+                        if (next != null) {
+                            submit(next);
+                        }
+                    });
+        }
+
+        private void onQueryComplete(PendingQuery query, Future<AddressedEnvelope<DnsResponse, InetSocketAddress>> future) {
+            if (!future.isSuccess()) {
+                if (query.attempts < MAX_QUERY_ATTEMPTS) {
+                    // UDP查询可能丢包，重新排队重试
+                    waitingQueries.add(query);
+                } else {
+                    query.result.completeExceptionally(future.cause());
+                }
+                return;
+            }
+            AddressedEnvelope<DnsResponse, InetSocketAddress> envelope = future.getNow();
+            try {
+                query.result.complete(toAnswer(query.domain, query.type, envelope.content()));
+            } catch (Exception e) {
+                query.result.completeExceptionally(e);
+            } finally {
+                envelope.release();
+            }
+        }
+
+        void close() {
+            resolver.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (ServerResolver resolver : resolverMap.values()) {
+            resolver.close();
+        }
+        resolverMap.clear();
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+    }
+}
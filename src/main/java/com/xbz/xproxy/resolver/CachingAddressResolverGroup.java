@@ -0,0 +1,77 @@
+package com.xbz.xproxy.resolver;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.MultiThreadIoEventLoopGroup;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.InetSocketAddressResolver;
+import io.netty.resolver.ResolvedAddressTypes;
+import io.netty.resolver.dns.*;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 目标连接的非阻塞地址解析器组<br>
+ * 未检测到IP的域名按域名连接时，由{@link io.netty.bootstrap.Bootstrap#resolver(AddressResolverGroup)}使用此解析器组，
+ * 代替{@link InetSocketAddress}构造时的JDK同步解析，慢dns不会阻塞eventLoop上的其他连接。<br>
+ * 所有eventLoop共用一个{@link DnsNameResolver}及其缓存：缓存命中（按dns应答的TTL过期）时在调用线程直接完成，
+ * 未命中的查询在独立的解析线程中异步发出，不在I/O线程中执行。dns服务器使用系统配置，并优先查询hosts文件。
+ */
+public class CachingAddressResolverGroup extends AddressResolverGroup<InetSocketAddress> {
+    /**
+     * 单次查询超时时间（毫秒）
+     */
+    private static final long QUERY_TIMEOUT_MILLIS = 3000;
+    /**
+     * 缓存的最大TTL（秒），dns应答的TTL超过此值时按此值缓存
+     */
+    private static final int MAX_CACHE_TTL_SECONDS = 600;
+    /**
+     * 解析失败的缓存时间（秒），避免不存在的域名每次连接都查询
+     */
+    private static final int NEGATIVE_CACHE_TTL_SECONDS = 10;
+
+    private final EventLoopGroup group;
+    private final DnsNameResolver resolver;
+
+    public CachingAddressResolverGroup() {
+        this(DnsServerAddressStreamProviders.platformDefault());
+    }
+
+    /**
+     * @param nameServerProvider dns服务器
+     */
+    public CachingAddressResolverGroup(DnsServerAddressStreamProvider nameServerProvider) {
+        this.group = new MultiThreadIoEventLoopGroup(1, new DefaultThreadFactory("BackendResolve", true), NioIoHandler.newFactory());
+        this.resolver = new DnsNameResolverBuilder(group.next())
+                .datagramChannelType(NioDatagramChannel.class)
+                .nameServerProvider(nameServerProvider)
+                .resolveCache(new DefaultDnsCache(0, MAX_CACHE_TTL_SECONDS, NEGATIVE_CACHE_TTL_SECONDS))
+                .cnameCache(new DefaultDnsCnameCache(0, MAX_CACHE_TTL_SECONDS))
+                .resolvedAddressTypes(ResolvedAddressTypes.IPV4_PREFERRED)
+                .queryTimeoutMillis(QUERY_TIMEOUT_MILLIS)
+                .build();
+    }
+
+    @Override
+    protected AddressResolver<InetSocketAddress> newResolver(EventExecutor executor) {
+        return new InetSocketAddressResolver(executor, resolver) {
+            @Override
+            public void close() {
+                // 共用的解析器随解析器组关闭
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        resolver.close();
+        group.shutdownGracefully(0, 0, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,194 @@
+package com.xbz.xproxy.rule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 代理域名规则集合，不可变<br>
+ * 支持三种规则：
+ * <ul>
+ *     <li><code>github.com</code>：只匹配域名本身</li>
+ *     <li><code>*.github.com</code>：只匹配子域名，如<code>api.github.com</code>、<code>a.b.github.com</code></li>
+ *     <li><code>.githubusercontent.com</code>：匹配域名本身及所有子域名</li>
+ * </ul>
+ * 规则按后缀存入开放寻址的哈希索引。匹配时从域名末尾向前逐字符计算后缀的哈希（与{@link String#hashCode()}一致），
+ * 每到一个标签边界查找一次索引，耗时与域名长度成正比，与规则数量无关，且不创建子串等任何对象。
+ * 规则文件中以<code>#</code>开头的行及空行忽略，不区分大小写。
+ */
+public final class DomainRuleSet {
+    public static final DomainRuleSet EMPTY = parse(Collections.emptyList());
+
+    /**
+     * 后缀规则匹配域名本身
+     */
+    private static final byte MATCH_SELF = 1;
+    /**
+     * 后缀规则匹配子域名
+     */
+    private static final byte MATCH_SUBDOMAIN = 2;
+
+    /**
+     * 开放寻址哈希表，容量为2的幂，负载不超过1/2
+     */
+    private final String[] suffixes;
+    private final int[] hashes;
+    private final byte[] matchFlags;
+    private final int mask;
+
+    /**
+     * 精确匹配的域名（不含通配规则），需要定时检测IP
+     */
+    private final List<String> exactDomains;
+    private final Set<String> exactDomainSet;
+    /**
+     * 是否包含通配规则
+     */
+    private final boolean hasWildcard;
+
+    private DomainRuleSet(String[] suffixes, int[] hashes, byte[] matchFlags, List<String> exactDomains, boolean hasWildcard) {
+        this.suffixes = suffixes;
+        this.hashes = hashes;
+        this.matchFlags = matchFlags;
+        this.mask = suffixes.length - 1;
+        this.exactDomains = exactDomains;
+        this.exactDomainSet = new HashSet<>(exactDomains);
+        this.hasWildcard = hasWildcard;
+    }
+
+    /**
+     * 解析规则
+     *
+     * @param lines 规则行
+     * @return 规则集合
+     */
+    public static DomainRuleSet parse(Collection<String> lines) {
+        int capacity = 16;
+        while (capacity < lines.size() * 2) {
+            capacity <<= 1;
+        }
+        String[] suffixes = new String[capacity];
+        int[] hashes = new int[capacity];
+        byte[] matchFlags = new byte[capacity];
+        Set<String> exactDomains = new LinkedHashSet<>();
+        boolean hasWildcard = false;
+        for (String line : lines) {
+            if (line == null) {
+                continue;
+            }
+            String rule = line.trim().toLowerCase(Locale.ROOT);
+            if (rule.isEmpty() || rule.startsWith("#")) {
+                continue;
+            }
+            String suffix;
+            byte flags;
+            if (rule.startsWith("*.")) {
+                suffix = rule.substring(2);
+                flags = MATCH_SUBDOMAIN;
+                hasWildcard = true;
+            } else if (rule.startsWith(".")) {
+                suffix = rule.substring(1);
+                flags = MATCH_SELF | MATCH_SUBDOMAIN;
+                hasWildcard = true;
+                exactDomains.add(suffix);
+            } else {
+                suffix = rule;
+                flags = MATCH_SELF;
+                exactDomains.add(suffix);
+            }
+            if (suffix.isEmpty()) {
+                continue;
+            }
+            put(suffixes, hashes, matchFlags, suffix, flags);
+        }
+        return new DomainRuleSet(suffixes, hashes, matchFlags,
+                Collections.unmodifiableList(new ArrayList<>(exactDomains)), hasWildcard);
+    }
+
+    private static void put(String[] suffixes, int[] hashes, byte[] matchFlags, String suffix, byte flags) {
+        int hash = suffix.hashCode();
+        int mask = suffixes.length - 1;
+        int index = spread(hash) & mask;
+        while (suffixes[index] != null) {
+            if (hashes[index] == hash && suffixes[index].equals(suffix)) {
+                matchFlags[index] |= flags;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        suffixes[index] = suffix;
+        hashes[index] = hash;
+        matchFlags[index] = flags;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * 域名是否匹配任一规则
+     *
+     * @param domain 域名
+     * @return 匹配返回true
+     */
+    public boolean matches(String domain) {
+        if (domain == null) {
+            return false;
+        }
+        int length = domain.length();
+        int hash = 0;
+        int pow = 1;
+        for (int i = length - 1; i >= 0; i--) {
+            char c = Character.toLowerCase(domain.charAt(i));
+            if (c == '.' && i < length - 1 && lookup(domain, i + 1, hash, MATCH_SUBDOMAIN)) {
+                return true;
+            }
+            hash += c * pow;
+            pow *= 31;
+        }
+        return length > 0 && lookup(domain, 0, hash, MATCH_SELF);
+    }
+
+    /**
+     * 查找域名从{@code start}开始的后缀
+     */
+    private boolean lookup(String domain, int start, int hash, byte flag) {
+        int suffixLength = domain.length() - start;
+        int index = spread(hash) & mask;
+        String suffix;
+        while ((suffix = suffixes[index]) != null) {
+            if (hashes[index] == hash && suffix.length() == suffixLength
+                    && domain.regionMatches(true, start, suffix, 0, suffixLength)) {
+                return (matchFlags[index] & flag) != 0;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * 精确匹配的域名，包括<code>.githubusercontent.com</code>规则中的域名本身
+     */
+    public List<String> getExactDomains() {
+        return exactDomains;
+    }
+
+    /**
+     * 是否为精确匹配的域名，与{@link #matches(String)}一致不区分大小写
+     */
+    public boolean isExactDomain(String domain) {
+        return domain != null && exactDomainSet.contains(domain.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * 是否包含通配规则，不包含时无需为未知域名匹配规则
+     */
+    public boolean hasWildcard() {
+        return hasWildcard;
+    }
+}
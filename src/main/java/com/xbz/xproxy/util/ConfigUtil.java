@@ -60,6 +60,10 @@ public class ConfigUtil {
         String dnsListVal = appProps.getProperty("dns.list");
         List<String> dnsList = Arrays.stream(dnsListVal.split(",")).collect(Collectors.toCollection(ArrayList::new));
         appConfig.setDnsList(dnsList);
+        String ipv6Val = appProps.getProperty("dns.ipv6");
+        if (ipv6Val != null && !ipv6Val.isBlank()) {
+            appConfig.setIpv6(Boolean.parseBoolean(ipv6Val.trim()));
+        }
 
         // 解析固定域名IP
         HashMap<String, List<String>> fixedDomainIpsMap = new HashMap<>();
@@ -75,6 +79,88 @@ public class ConfigUtil {
             }
         }
         appConfig.setFixedDomainIPsMap(fixedDomainIpsMap);
+
+        // 解析域名IP检测与IP探测配置，未配置时使用默认值
+        String refreshParallelismVal = appProps.getProperty("refresh.parallelism");
+        if (refreshParallelismVal != null && !refreshParallelismVal.isBlank()) {
+            int refreshParallelism = Integer.parseInt(refreshParallelismVal.trim());
+            if (refreshParallelism <= 0) {
+                throw new IllegalArgumentException("refresh.parallelism必须大于0");
+            }
+            appConfig.setRefreshParallelism(refreshParallelism);
+        }
+        String refreshMinIntervalVal = appProps.getProperty("refresh.min_interval");
+        if (refreshMinIntervalVal != null && !refreshMinIntervalVal.isBlank()) {
+            appConfig.setRefreshMinIntervalSeconds(Integer.parseInt(refreshMinIntervalVal.trim()));
+        }
+        String refreshMaxIntervalVal = appProps.getProperty("refresh.max_interval");
+        if (refreshMaxIntervalVal != null && !refreshMaxIntervalVal.isBlank()) {
+            appConfig.setRefreshMaxIntervalSeconds(Integer.parseInt(refreshMaxIntervalVal.trim()));
+        }
+        if (appConfig.getRefreshMinIntervalSeconds() <= 0
+                || appConfig.getRefreshMaxIntervalSeconds() < appConfig.getRefreshMinIntervalSeconds()) {
+            throw new IllegalArgumentException("refresh.min_interval必须大于0且不大于refresh.max_interval");
+        }
+        String refreshJitterVal = appProps.getProperty("refresh.jitter");
+        if (refreshJitterVal != null && !refreshJitterVal.isBlank()) {
+            double refreshJitter = Double.parseDouble(refreshJitterVal.trim());
+            if (refreshJitter < 0 || refreshJitter >= 1) {
+                throw new IllegalArgumentException("refresh.jitter必须在[0,1)范围内");
+            }
+            appConfig.setRefreshJitter(refreshJitter);
+        }
+        String retryMinIntervalVal = appProps.getProperty("refresh.retry_min_interval");
+        if (retryMinIntervalVal != null && !retryMinIntervalVal.isBlank()) {
+            appConfig.setRetryMinIntervalSeconds(Integer.parseInt(retryMinIntervalVal.trim()));
+        }
+        String retryMaxIntervalVal = appProps.getProperty("refresh.retry_max_interval");
+        if (retryMaxIntervalVal != null && !retryMaxIntervalVal.isBlank()) {
+            appConfig.setRetryMaxIntervalSeconds(Integer.parseInt(retryMaxIntervalVal.trim()));
+        }
+        if (appConfig.getRetryMinIntervalSeconds() <= 0
+                || appConfig.getRetryMaxIntervalSeconds() < appConfig.getRetryMinIntervalSeconds()) {
+            throw new IllegalArgumentException("refresh.retry_min_interval必须大于0且不大于refresh.retry_max_interval");
+        }
+        String retryBudgetVal = appProps.getProperty("refresh.retry_budget");
+        if (retryBudgetVal != null && !retryBudgetVal.isBlank()) {
+            int retryBudget = Integer.parseInt(retryBudgetVal.trim());
+            if (retryBudget <= 0) {
+                throw new IllegalArgumentException("refresh.retry_budget必须大于0");
+            }
+            appConfig.setRetryBudget(retryBudget);
+        }
+        String probePortsVal = appProps.getProperty("probe.ports");
+        if (probePortsVal != null && !probePortsVal.isBlank()) {
+            List<Integer> probePorts = Arrays.stream(probePortsVal.split(","))
+                    .map(String::trim)
+                    .map(Integer::parseInt)
+                    .collect(Collectors.toCollection(ArrayList::new));
+            appConfig.setProbePorts(probePorts);
+        }
+        String probeSamplesVal = appProps.getProperty("probe.samples");
+        if (probeSamplesVal != null && !probeSamplesVal.isBlank()) {
+            appConfig.setProbeSamples(Integer.parseInt(probeSamplesVal.trim()));
+        }
+        String probeTimeoutVal = appProps.getProperty("probe.timeout");
+        if (probeTimeoutVal != null && !probeTimeoutVal.isBlank()) {
+            appConfig.setProbeTimeoutMillis(Integer.parseInt(probeTimeoutVal.trim()));
+        }
+        String probeTlsVal = appProps.getProperty("probe.tls");
+        if (probeTlsVal != null && !probeTlsVal.isBlank()) {
+            appConfig.setProbeTls(Boolean.parseBoolean(probeTlsVal.trim()));
+        }
+        String probeIcmpVal = appProps.getProperty("probe.icmp");
+        if (probeIcmpVal != null && !probeIcmpVal.isBlank()) {
+            appConfig.setProbeIcmp(Boolean.parseBoolean(probeIcmpVal.trim()));
+        }
+        String probeCacheTtlVal = appProps.getProperty("probe.cache_ttl");
+        if (probeCacheTtlVal != null && !probeCacheTtlVal.isBlank()) {
+            int probeCacheTtlSeconds = Integer.parseInt(probeCacheTtlVal.trim());
+            if (probeCacheTtlSeconds < 0) {
+                throw new IllegalArgumentException("probe.cache_ttl不能小于0");
+            }
+            appConfig.setProbeCacheTtlSeconds(probeCacheTtlSeconds);
+        }
         return appConfig;
     }
 
@@ -117,6 +203,17 @@ public class ConfigUtil {
     }
 
 
+    /**
+     * 获取应用程序所在目录下的文件，与外部proxy_domains文件同级
+     *
+     * @param name 文件名
+     * @return
+     */
+    @SneakyThrows
+    public static File getAppFile(String name) {
+        return new File(getAppDirectory(), name);
+    }
+
     /**
      * 获取应用程序所在目录路径（兼容JAR运行和IDE运行）
      */
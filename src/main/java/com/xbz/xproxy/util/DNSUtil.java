@@ -1,23 +1,63 @@
 package com.xbz.xproxy.util;
 
+import com.xbz.xproxy.pojo.AppConfig;
 import com.xbz.xproxy.pojo.DomainIP;
 import com.xbz.xproxy.pojo.DomainIPInfo;
+import com.xbz.xproxy.pojo.ProbeResult;
+import com.xbz.xproxy.pojo.ResolveFailureEnum;
+import com.xbz.xproxy.probe.IcmpEchoProber;
+import com.xbz.xproxy.probe.ProbeCache;
+import com.xbz.xproxy.probe.TcpConnectProber;
+import com.xbz.xproxy.resolver.AsyncDnsResolver;
 import org.icmp4j.IcmpPingResponse;
 import org.icmp4j.IcmpPingUtil;
-import org.xbill.DNS.ARecord;
-import org.xbill.DNS.Lookup;
-import org.xbill.DNS.SimpleResolver;
-import org.xbill.DNS.Type;
-import org.xbill.DNS.Record;
 
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class DNSUtil {
+    /**
+     * 非阻塞域名解析器，全局唯一
+     */
+    private static final AsyncDnsResolver RESOLVER = new AsyncDnsResolver();
+
+    /**
+     * IP连接探测器，按应用配置懒加载，全局唯一
+     */
+    private static volatile TcpConnectProber PROBER = null;
+
+    /**
+     * 按IP缓存的探测结果，按应用配置懒加载，全局唯一
+     */
+    private static volatile ProbeCache PROBE_CACHE = null;
+
+    /**
+     * 进程内ICMP探测器，不可用时为空，回退到ping进程
+     */
+    private static volatile IcmpEchoProber ICMP_PROBER = null;
+    private static volatile boolean ICMP_PROBER_INITIALIZED = false;
+    /**
+     * 回退到ping进程时执行ping的线程池，限制同时运行的ping进程数
+     */
+    private static final ExecutorService ICMP_PROCESS_EXECUTOR = Executors.newFixedThreadPool(8, new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "IcmpPing_Thread_" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     /**
      * 域名转IP
      *
@@ -26,44 +66,134 @@ public class DNSUtil {
      * @return
      */
     public static List<String> domain2IP(String dns, String domain) {
-        List<String> ips = new ArrayList<>();
         try {
-            Lookup lookup = new Lookup(domain, Type.A);
-            SimpleResolver resolver = new SimpleResolver(dns); // 指定DNS服务器
-            lookup.setResolver(resolver);
-
-            Record[] records = lookup.run();
-            if (lookup.getResult() == Lookup.SUCCESSFUL) {
-                for (Record rec : records) {
-                    ARecord aRecord = (ARecord) rec;
-                    ips.add(aRecord.getAddress().getHostAddress());
-                }
-            }
+            return RESOLVER.resolve(domain, dns).join().getIpList();
         } catch (Exception e) {
             e.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
 
+    private static IcmpEchoProber getIcmpProber() {
+        if (!ICMP_PROBER_INITIALIZED) {
+            synchronized (DNSUtil.class) {
+                if (!ICMP_PROBER_INITIALIZED) {
+                    try {
+                        ICMP_PROBER = IcmpEchoProber.open();
+                    } catch (Throwable e) {
+                        System.err.println("进程内ICMP探测不可用，使用ping进程探测：" + e.getMessage());
+                    }
+                    ICMP_PROBER_INITIALIZED = true;
+                }
+            }
+        }
+        return ICMP_PROBER;
+    }
+
+    private static TcpConnectProber getProber(AppConfig appConfig) {
+        if (PROBER == null) {
+            synchronized (DNSUtil.class) {
+                if (PROBER == null) {
+                    PROBER = new TcpConnectProber(appConfig.getProbePorts(), appConfig.getProbeSamples(),
+                            appConfig.getProbeTimeoutMillis(), appConfig.isProbeTls());
+                }
+            }
+        }
+        return PROBER;
+    }
+
+    private static ProbeCache getProbeCache(AppConfig appConfig) {
+        if (PROBE_CACHE == null) {
+            synchronized (DNSUtil.class) {
+                if (PROBE_CACHE == null) {
+                    PROBE_CACHE = new ProbeCache(TimeUnit.SECONDS.toMillis(appConfig.getProbeCacheTtlSeconds()));
+                }
+            }
         }
-        return ips;
+        return PROBE_CACHE;
     }
 
+    /**
+     * 实际发起的IP探测次数，命中探测缓存的不计入
+     */
+    public static long getProbeCount() {
+        return PROBE_CACHE != null ? PROBE_CACHE.getProbeCount() : 0;
+    }
+
+    /**
+     * 检测IP是否可用并测量连接耗时
+     *
+     * @param domain
+     * @param ip
+     * @return IP信息，IP不可达时返回null
+     * @see #getDomainIPInfoAsync(String, String)
+     */
     public static DomainIPInfo getDomainIPInfo(String domain, String ip) {
-        // 得到ttl
-        try {
-            IcmpPingResponse icmpPingResponse = IcmpPingUtil.executePingRequest(ip, 32, 500);
-            int ttl = icmpPingResponse.getTtl();
-            if (ttl > 0) {
-                DomainIPInfo ipInfo = new DomainIPInfo();
-                ipInfo.setDomain(domain);
-                ipInfo.setIp(ip);
-                ipInfo.setTtl(ttl);
-                return ipInfo;
+        return getDomainIPInfoAsync(domain, ip).join();
+    }
+
+    /**
+     * 异步检测IP是否可用并测量连接耗时<br>
+     * 通过TCP连接（可选TLS握手）探测判断IP是否可达，按多次采样耗时的中位数排序；
+     * 开启ICMP探测时额外记录ping的ttl，仅作为次要排序依据，ping不通不影响IP可用性。<br>
+     * 探测结果按IP缓存，多个域名解析到同一IP时共用一次探测
+     *
+     * @param domain
+     * @param ip
+     * @return IP信息，IP不可达时结果为null
+     */
+    public static CompletableFuture<DomainIPInfo> getDomainIPInfoAsync(String domain, String ip) {
+        AppConfig appConfig = ConfigUtil.getAppConfig();
+        return getProbeCache(appConfig).get(ip, () -> probeIp(appConfig, domain, ip))
+                .thenApply(probeResult -> probeResult != null ? toDomainIPInfo(domain, ip, probeResult) : null);
+    }
+
+    /**
+     * 探测IP，结果按IP缓存，不包含域名相关信息
+     */
+    private static CompletableFuture<ProbeResult> probeIp(AppConfig appConfig, String domain, String ip) {
+        return getProber(appConfig).probe(domain, ip).thenCompose(probeResult -> {
+            if (probeResult == null || !appConfig.isProbeIcmp()) {
+                return CompletableFuture.completedFuture(probeResult);
             }
+            return getIcmpTtlAsync(domain, ip).thenApply(ttl -> {
+                probeResult.setIcmpTtl(ttl);
+                return probeResult;
+            });
+        }).exceptionally(e -> {
+            System.err.println("连接探测[" + domain + "(" + ip + ")]异常！");
+            e.printStackTrace(System.err);
+            return null;
+        });
+    }
 
-        } catch (Exception e) {
+    private static DomainIPInfo toDomainIPInfo(String domain, String ip, ProbeResult probeResult) {
+        DomainIPInfo ipInfo = new DomainIPInfo();
+        ipInfo.setDomain(domain);
+        ipInfo.setIp(ip);
+        ipInfo.setProbeRttMillis(probeResult.getRttMillis());
+        ipInfo.setTtl(probeResult.getIcmpTtl());
+        return ipInfo;
+    }
+
+    /**
+     * ICMP ping得到ttl，进程内ICMP探测不可用时在其他线程中执行ping进程，不阻塞探测线程
+     *
+     * @return ttl，ping不通时结果为null
+     */
+    private static CompletableFuture<Integer> getIcmpTtlAsync(String domain, String ip) {
+        IcmpEchoProber icmpProber = getIcmpProber();
+        CompletableFuture<IcmpPingResponse> pingFuture = icmpProber != null
+                ? icmpProber.ping(ip, 500)
+                : CompletableFuture.supplyAsync(() -> IcmpPingUtil.executePingRequest(ip, 32, 500), ICMP_PROCESS_EXECUTOR);
+        return pingFuture.thenApply(icmpPingResponse -> {
+            int ttl = icmpPingResponse.getTtl();
+            return ttl > 0 ? (Integer) ttl : null;
+        }).exceptionally(e -> {
             System.err.println("ttl检查[" + domain + "(" + ip + ")]异常！");
             e.printStackTrace(System.err);
-        }
-        return null;
+            return null;
+        });
     }
 
     /**
@@ -72,33 +202,73 @@ public class DNSUtil {
      * @param dnsList
      * @param domain
      * @return
+     * @see #domain2IPAsync(List, String)
      */
     public static DomainIP domain2IP(List<String> dnsList, String domain) {
-        HashSet<DomainIPInfo> ipSet = new HashSet<>();
-        List<CompletableFuture<Void>> futures = dnsList.stream().map(dns -> {
-            return CompletableFuture.runAsync(() -> {
-                try {
-                    List<String> ipList = domain2IP(dns, domain);
-                    for (String ip : ipList) {
-                        // 检查IP是否可达
-                        DomainIPInfo ipInfo = getDomainIPInfo(domain, ip);
-                        if (ipInfo != null) {
-                            ipSet.add(ipInfo);
-                        }
+        return domain2IPAsync(dnsList, domain).join();
+    }
+
+    /**
+     * 异步多dns域名IP解析，按应用配置决定是否解析IPv6地址
+     *
+     * @param dnsList
+     * @param domain
+     * @return 域名IP，没有可用IP时IP列表为空
+     * @see #domain2IPAsync(List, String, boolean)
+     */
+    public static CompletableFuture<DomainIP> domain2IPAsync(List<String> dnsList, String domain) {
+        return domain2IPAsync(dnsList, domain, ConfigUtil.getAppConfig().isIpv6());
+    }
+
+    /**
+     * 异步多dns域名IP解析：同时向所有dns服务器查询，合并去重后同时探测所有IP，全程不阻塞线程
+     *
+     * @param dnsList
+     * @param domain
+     * @param ipv6    是否同时解析AAAA记录
+     * @return 域名IP，没有可用IP时IP列表为空
+     */
+    public static CompletableFuture<DomainIP> domain2IPAsync(List<String> dnsList, String domain, boolean ipv6) {
+        return RESOLVER.resolve(domain, dnsList, ipv6).thenCompose(answer -> probeAll(domain, answer.getIpList(), false)
+                .thenApply(domainIP -> {
+                    domainIP.setDnsTtlSeconds(answer.getMinTtlSeconds());
+                    if (answer.getFailure() != null) {
+                        domainIP.setFailure(answer.getFailure());
                     }
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    return domainIP;
+                }));
+    }
+
+    /**
+     * 同时探测多个IP，汇总可用IP
+     *
+     * @param preferred 可用IP是否标记为首选
+     * @return 域名IP，IP按探测耗时排序，耗时相同时剩余ttl大（跳数少）的在前
+     */
+    public static CompletableFuture<DomainIP> probeAll(String domain, List<String> ipList, boolean preferred) {
+        List<CompletableFuture<DomainIPInfo>> futures = ipList.stream()
+                .map(ip -> getDomainIPInfoAsync(domain, ip))
+                .collect(Collectors.toCollection(ArrayList::new));
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<DomainIPInfo> ipInfoList = new ArrayList<>(futures.size());
+            for (CompletableFuture<DomainIPInfo> future : futures) {
+                DomainIPInfo ipInfo = future.join();
+                if (ipInfo != null) {
+                    ipInfo.setPreferred(preferred);
+                    ipInfoList.add(ipInfo);
                 }
-            });
-        }).collect(Collectors.toCollection(ArrayList::new));
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-        List<DomainIPInfo> ipInfoList = new ArrayList<>(ipSet);
-        // 根据ttl排序
-        ipInfoList.sort(Comparator.comparing(DomainIPInfo::getTtl));
-        DomainIP domainIP = new DomainIP();
-        domainIP.setDomain(domain);
-        domainIP.setIpList(ipInfoList);
-        return domainIP;
+            }
+            ipInfoList.sort(Comparator.comparingDouble(DomainIPInfo::getProbeRttMillis)
+                    .thenComparing(DomainIPInfo::getTtl, Comparator.nullsLast(Comparator.reverseOrder())));
+            DomainIP domainIP = new DomainIP();
+            domainIP.setDomain(domain);
+            domainIP.setIpList(ipInfoList);
+            domainIP.setRefreshTime(System.currentTimeMillis());
+            if (ipInfoList.isEmpty()) {
+                domainIP.setFailure(ResolveFailureEnum.UNREACHABLE);
+            }
+            return domainIP;
+        });
     }
 
 }
@@ -0,0 +1,124 @@
+package com.xbz.xproxy.util;
+
+import com.xbz.xproxy.pojo.DomainIP;
+import com.xbz.xproxy.pojo.DomainIPInfo;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 域名IP缓存文件<br>
+ * 保存最近一次检测到的域名IP及其探测耗时、连接统计，启动时加载，使代理在首轮检测完成前即可使用优化后的IP，
+ * 加载的数据随后由定时检测重新验证。<br>
+ * 文件为紧凑的二进制格式：文件头（魔数、版本、保存时间、域名数），其后依次为每个域名及其IP信息，字符串为长度前缀的UTF-8。
+ */
+public class DomainIPCacheUtil {
+    private static final int MAGIC = 0x58504443;
+    private static final int VERSION = 1;
+
+    /**
+     * 保存域名IP，先写入临时文件再替换，保存中断时不会破坏原缓存文件
+     *
+     * @param file      缓存文件
+     * @param domainIPs 域名IP
+     * @throws IOException
+     */
+    public static void save(File file, Collection<DomainIP> domainIPs) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(domainIPs.size());
+            for (DomainIP domainIP : domainIPs) {
+                List<DomainIPInfo> ipList = domainIP.getIpList() != null ? domainIP.getIpList() : new ArrayList<>();
+                writeString(out, domainIP.getDomain());
+                out.writeLong(domainIP.getRefreshTime());
+                out.writeInt(ipList.size());
+                for (DomainIPInfo ipInfo : ipList) {
+                    writeString(out, ipInfo.getIp());
+                    out.writeBoolean(ipInfo.isPreferred());
+                    out.writeDouble(ipInfo.getProbeRttMillis());
+                    out.writeInt(ipInfo.getTtl() != null ? ipInfo.getTtl() : -1);
+                    out.writeInt(ipInfo.getConnectErrTimes().get());
+                    out.writeDouble(ipInfo.getConnectRttEwmaMillis());
+                    out.writeLong(ipInfo.getLastConnectErrTime());
+                }
+            }
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * 加载域名IP
+     *
+     * @param file         缓存文件
+     * @param maxAgeMillis 检测时间超过此时长的域名不加载
+     * @return 域名IP，缓存文件不存在时为空列表
+     * @throws IOException 缓存文件损坏或版本不符
+     */
+    public static List<DomainIP> load(File file, long maxAgeMillis) throws IOException {
+        List<DomainIP> domainIPs = new ArrayList<>();
+        if (!file.isFile()) {
+            return domainIPs;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("缓存文件格式不支持：" + file);
+            }
+            buffer.getLong();
+            long now = System.currentTimeMillis();
+            int domainCount = buffer.getInt();
+            for (int i = 0; i < domainCount; i++) {
+                String domain = readString(buffer);
+                long refreshTime = buffer.getLong();
+                int ipCount = buffer.getInt();
+                List<DomainIPInfo> ipList = new ArrayList<>(ipCount);
+                for (int j = 0; j < ipCount; j++) {
+                    DomainIPInfo ipInfo = new DomainIPInfo();
+                    ipInfo.setDomain(domain);
+                    ipInfo.setIp(readString(buffer));
+                    ipInfo.setPreferred(buffer.get() != 0);
+                    ipInfo.setProbeRttMillis(buffer.getDouble());
+                    int ttl = buffer.getInt();
+                    ipInfo.setTtl(ttl >= 0 ? ttl : null);
+                    ipInfo.getConnectErrTimes().set(buffer.getInt());
+                    ipInfo.setConnectRttEwmaMillis(buffer.getDouble());
+                    ipInfo.setLastConnectErrTime(buffer.getLong());
+                    ipList.add(ipInfo);
+                }
+                if (now - refreshTime > maxAgeMillis) {
+                    continue;
+                }
+                DomainIP domainIP = new DomainIP();
+                domainIP.setDomain(domain);
+                domainIP.setIpList(ipList);
+                domainIP.setRefreshTime(refreshTime);
+                domainIPs.add(domainIP);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("缓存文件已损坏：" + file, e);
+        }
+        return domainIPs;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
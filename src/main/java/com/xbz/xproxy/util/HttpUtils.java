@@ -2,11 +2,26 @@ package com.xbz.xproxy.util;
 
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.util.AsciiString;
 
 import java.nio.charset.StandardCharsets;
 
 public class HttpUtils {
+    /**
+     * 非标准的代理连接头，HTTP/1.0客户端通过它向代理声明keep-alive
+     */
+    public static final String PROXY_CONNECTION = "Proxy-Connection";
+    /**
+     * Keep-Alive头，HttpHeaderNames.KEEP_ALIVE已废弃
+     */
+    private static final AsciiString KEEP_ALIVE = AsciiString.cached("keep-alive");
+
     public static void sendError(ChannelHandlerContext ctx, HttpResponseStatus status) {
         String response = "HTTP/1.1 " + status.code() + "\r\n" +
                 "Content-Length: 0\r\n" +
@@ -14,4 +29,90 @@ public class HttpUtils {
         ctx.writeAndFlush(Unpooled.copiedBuffer(response, StandardCharsets.US_ASCII));
         ctx.close();
     }
+
+    /**
+     * 客户端是否希望与代理保持连接：Connection优先，其次兼容Proxy-Connection
+     */
+    public static boolean isClientKeepAlive(HttpRequest request) {
+        HttpHeaders headers = request.headers();
+        if (headers.contains(HttpHeaderNames.CONNECTION)) {
+            return HttpUtil.isKeepAlive(request);
+        }
+        String proxyConnection = headers.get(PROXY_CONNECTION);
+        if (proxyConnection != null) {
+            return HttpHeaderValues.KEEP_ALIVE.contentEqualsIgnoreCase(proxyConnection);
+        }
+        return HttpUtil.isKeepAlive(request);
+    }
+
+    /**
+     * 移除逐跳（hop-by-hop）头部，这些头部只对当前一跳连接有效，代理不能原样转发：
+     * Connection及其中列出的头部、Keep-Alive、Proxy-Connection、TE、Upgrade、Proxy-Authorization
+     */
+    public static void removeHopByHopHeaders(HttpHeaders headers) {
+        for (String connection : headers.getAll(HttpHeaderNames.CONNECTION)) {
+            for (String token : connection.split(",")) {
+                String name = token.trim();
+                if (!name.isEmpty()) {
+                    headers.remove(name);
+                }
+            }
+        }
+        headers.remove(HttpHeaderNames.CONNECTION);
+        headers.remove(KEEP_ALIVE);
+        headers.remove(PROXY_CONNECTION);
+        headers.remove(HttpHeaderNames.TE);
+        headers.remove(HttpHeaderNames.UPGRADE);
+        headers.remove(HttpHeaderNames.PROXY_AUTHORIZATION);
+    }
+
+    /**
+     * 解析<code>host[:port]</code>格式（Host头、CONNECT请求的目标）中的主机，
+     * IPv6地址写为<code>[2001:db8::1]:443</code>，返回的主机不含方括号
+     */
+    public static String getHost(String authority) {
+        if (authority.startsWith("[")) {
+            int end = authority.indexOf(']');
+            return end > 0 ? authority.substring(1, end) : authority.substring(1);
+        }
+        int colonIndex = authority.indexOf(':');
+        if (colonIndex < 0 || colonIndex != authority.lastIndexOf(':')) {
+            // 没有端口，或未加方括号的IPv6地址
+            return authority;
+        }
+        return authority.substring(0, colonIndex);
+    }
+
+    /**
+     * 解析<code>host[:port]</code>格式中的端口
+     *
+     * @param defaultPort 没有端口时的默认端口
+     */
+    public static int getPort(String authority, int defaultPort) {
+        int colonIndex = authority.lastIndexOf(':');
+        boolean hasPort = authority.startsWith("[")
+                ? colonIndex > authority.indexOf(']')
+                : colonIndex >= 0 && colonIndex == authority.indexOf(':');
+        if (!hasPort || colonIndex == authority.length() - 1) {
+            return defaultPort;
+        }
+        return Integer.parseInt(authority.substring(colonIndex + 1));
+    }
+
+    /**
+     * 将代理请求的绝对URI（http://host:port/path?query）转换为发给目标服务器的origin-form（/path?query）
+     */
+    public static String toOriginForm(String uri) {
+        int schemeEnd = uri.indexOf("://");
+        if (schemeEnd < 0 || uri.startsWith("/")) {
+            return uri;
+        }
+        int pathStart = uri.indexOf('/', schemeEnd + 3);
+        int queryStart = uri.indexOf('?', schemeEnd + 3);
+        if (pathStart < 0 || (queryStart >= 0 && queryStart < pathStart)) {
+            // 没有路径部分
+            return queryStart < 0 ? "/" : "/" + uri.substring(queryStart);
+        }
+        return uri.substring(pathStart);
+    }
 }
@@ -34,6 +34,18 @@ public class NetUtil {
         }
     }
 
+    /**
+     * IP地址的规范写法：IPv6地址去掉范围标识并转为RFC 5952压缩格式（如<code>::1</code>），其他地址原样返回
+     */
+    public static String normalizeIP(String host) {
+        int scopeIndex = host.indexOf('%');
+        String address = scopeIndex > 0 ? host.substring(0, scopeIndex) : host;
+        if (!io.netty.util.NetUtil.isValidIpV6Address(address)) {
+            return host;
+        }
+        return io.netty.util.NetUtil.toAddressString(io.netty.util.NetUtil.createInetAddressFromIpAddressString(address));
+    }
+
     /**
      * 获取本地所有IP地址
      * @param excludeLookupBack 是否排除回环地址（如127.0.0.1）
@@ -10,4 +10,24 @@ public class ProxyUtils {
             ch.writeAndFlush(Unpooled.EMPTY_BUFFER).addListener(ChannelFutureListener.CLOSE);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 将从source读到的消息转发给target，target写缓冲超过高水位时暂停读取source，待target可写后由target一侧的handler恢复<br>
+     * 合并flush时每次读取只write，由调用方在一轮读取完成(channelReadComplete)后统一flush，大量小数据包合并为一次系统调用发送；
+     * 暂停时先暂停再flush：flush可能同步写完并触发可写事件恢复读取，顺序颠倒会导致永久暂停
+     *
+     * @param msg   转发的消息，引用计数由target负责释放
+     * @param flush 是否立即flush，合并flush时为false
+     */
+    public static void writeWithBackpressure(Channel source, Channel target, Object msg, boolean flush) {
+        if (flush) {
+            target.writeAndFlush(msg);
+        } else {
+            target.write(msg);
+        }
+        if (!target.isWritable()) {
+            source.config().setAutoRead(false);
+            target.flush();
+        }
+    }
+}
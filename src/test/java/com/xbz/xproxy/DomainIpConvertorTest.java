@@ -0,0 +1,200 @@
+package com.xbz.xproxy;
+
+import com.xbz.xproxy.pojo.AppConfig;
+import com.xbz.xproxy.pojo.DomainIP;
+import com.xbz.xproxy.pojo.DomainIPInfo;
+import com.xbz.xproxy.metrics.ProxyMetrics;
+import com.xbz.xproxy.pojo.DomainRoute;
+import com.xbz.xproxy.pojo.ResolveFailureEnum;
+import com.xbz.xproxy.rule.DomainRuleSet;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DomainIpConvertorTest {
+
+    private static DomainIPInfo ipInfo(String ip, int ttl) {
+        DomainIPInfo ipInfo = new DomainIPInfo();
+        ipInfo.setDomain("example.com");
+        ipInfo.setIp(ip);
+        ipInfo.setTtl(ttl);
+        return ipInfo;
+    }
+
+    private static DomainIP domainIP(DomainIPInfo... ipInfos) {
+        DomainIP domainIP = new DomainIP();
+        domainIP.setDomain("example.com");
+        domainIP.setIpList(new ArrayList<>(List.of(ipInfos)));
+        return domainIP;
+    }
+
+    @After
+    public void tearDown() {
+        DomainIpConvertor.applyRules(DomainRuleSet.EMPTY).join();
+    }
+
+    private static DomainIP resolvedDomainIP(String domain) {
+        DomainIP domainIP = domainIP(ipInfo("1.1.1.1", 10));
+        domainIP.setDomain(domain);
+        domainIP.setRefreshTime(System.currentTimeMillis());
+        return domainIP;
+    }
+
+    @Test
+    public void testRefreshParallelismIsShared() {
+        int parallelism = new AppConfig().getRefreshParallelism();
+        List<String> started = new ArrayList<>();
+        for (int i = 0; i < parallelism + 2; i++) {
+            String name = "batch" + i;
+            DomainIpConvertor.submitRefresh(() -> started.add(name), false);
+        }
+        assertEquals(parallelism, started.size());
+        // 按需检测排在排队的定时检测之前
+        DomainIpConvertor.submitRefresh(() -> started.add("onDemand"), true);
+        assertEquals(parallelism, started.size());
+        DomainIpConvertor.finishRefresh();
+        assertEquals("onDemand", started.get(parallelism));
+        for (int i = 0; i < parallelism + 3; i++) {
+            DomainIpConvertor.finishRefresh();
+        }
+        assertEquals(parallelism + 3, started.size());
+    }
+
+    @Test
+    public void testUnresolvedReasonExported() {
+        DomainIpConvertor.scheduleRetry(new AppConfig(), "unresolved.example.com", ResolveFailureEnum.NXDOMAIN);
+
+        assertEquals(ResolveFailureEnum.NXDOMAIN, DomainIpConvertor.getUnresolvedDomain("Unresolved.Example.COM").getFailure());
+        assertTrue(ProxyMetrics.toPrometheusText().contains("xproxy_unresolved_domains{reason=\"nxdomain\"} 1\n"));
+    }
+
+    @Test
+    public void testRemovedRuleDropsRoute() {
+        DomainIpConvertor.applyRules(DomainRuleSet.parse(List.of("kept.example.com", "removed.example.com"))).join();
+        DomainIpConvertor.publishResolved(List.of(resolvedDomainIP("kept.example.com"),
+                resolvedDomainIP("removed.example.com"))).join();
+        assertNotNull(DomainIpConvertor.getDomainRoute("removed.example.com"));
+
+        DomainIpConvertor.applyRules(DomainRuleSet.parse(List.of("kept.example.com"))).join();
+        assertNull(DomainIpConvertor.getDomainRoute("removed.example.com"));
+        assertNull(DomainIpConvertor.getDomainIPBy("removed.example.com"));
+        assertNotNull(DomainIpConvertor.getDomainRoute("kept.example.com"));
+    }
+
+    @Test
+    public void testDomainRouteIgnoresHostCase() {
+        DomainIP domainIP = resolvedDomainIP("mixedcase.example.com");
+        DomainIpConvertor.publishResolved(List.of(domainIP)).join();
+
+        DomainRoute route = DomainIpConvertor.getDomainRoute("MixedCase.Example.COM");
+        assertNotNull(route);
+        assertSame(domainIP, route.getDomainIP());
+    }
+
+    @Test
+    public void testMeasuredRttRanksBeforeTtl() {
+        DomainIPInfo a = ipInfo("1.1.1.1", 10);
+        DomainIPInfo b = ipInfo("2.2.2.2", 50);
+        DomainIPInfo c = ipInfo("3.3.3.3", 60);
+        b.recordConnectSuccess(TimeUnit.MILLISECONDS.toNanos(80));
+        c.recordConnectSuccess(TimeUnit.MILLISECONDS.toNanos(20));
+
+        List<DomainIPInfo> list = DomainIpConvertor.getAvailableIpInfoList(domainIP(a, b, c));
+        assertEquals(List.of(c, b, a), list);
+        assertSame(c, DomainIpConvertor.getRealAvailableIpInfo(domainIP(a, b, c)));
+    }
+
+    @Test
+    public void testLargerRemainingTtlRanksFirst() {
+        DomainIPInfo far = ipInfo("1.1.1.1", 50);
+        DomainIPInfo near = ipInfo("2.2.2.2", 118);
+        DomainIPInfo unknown = ipInfo("3.3.3.3", 0);
+        unknown.setTtl(null);
+
+        assertEquals(List.of(near, far, unknown), DomainIpConvertor.getAvailableIpInfoList(domainIP(far, unknown, near)));
+    }
+
+    @Test
+    public void testFailureCoolsDownAndDemotes() {
+        DomainIPInfo a = ipInfo("1.1.1.1", 10);
+        DomainIPInfo b = ipInfo("2.2.2.2", 50);
+        a.recordConnectSuccess(TimeUnit.MILLISECONDS.toNanos(20));
+        b.recordConnectSuccess(TimeUnit.MILLISECONDS.toNanos(40));
+
+        a.recordConnectFailure();
+        // 冷却期内不参与选择
+        assertTrue(a.isCoolingDown(System.currentTimeMillis()));
+        assertEquals(List.of(b), DomainIpConvertor.getAvailableIpInfoList(domainIP(a, b)));
+        // 冷却结束后失败惩罚使其排在后面
+        assertFalse(a.isCoolingDown(System.currentTimeMillis() + 1000));
+        assertTrue(a.getConnectRttEwmaMillis() > b.getConnectRttEwmaMillis());
+
+        // 连接成功后错误次数清零，耗时逐步回落
+        a.recordConnectSuccess(TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, a.getConnectErrTimes().get());
+        assertFalse(a.isCoolingDown(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testPreferredIgnoresFailures() {
+        DomainIPInfo a = ipInfo("1.1.1.1", 10);
+        DomainIPInfo preferred = ipInfo("2.2.2.2", 50);
+        preferred.setPreferred(true);
+        for (int i = 0; i < 10; i++) {
+            preferred.recordConnectFailure();
+        }
+        assertSame(preferred, DomainIpConvertor.getRealAvailableIpInfo(domainIP(a, preferred)));
+    }
+
+    @Test
+    public void testCooldownGrowsWithConsecutiveFailures() {
+        DomainIPInfo a = ipInfo("1.1.1.1", 10);
+        for (int i = 0; i < 3; i++) {
+            a.recordConnectFailure();
+        }
+        long now = System.currentTimeMillis();
+        assertTrue(a.isCoolingDown(now + 3000));
+        assertFalse(a.isCoolingDown(now + 5000));
+
+        DomainIPInfo refreshed = ipInfo("1.1.1.1", 10);
+        refreshed.inheritConnectStats(a);
+        assertEquals(3, refreshed.getConnectErrTimes().get());
+        assertTrue(refreshed.isCoolingDown(now + 3000));
+    }
+
+    @Test
+    public void testRefreshDelayFollowsDnsTtl() {
+        AppConfig appConfig = new AppConfig();
+        appConfig.setRefreshMinIntervalSeconds(60);
+        appConfig.setRefreshMaxIntervalSeconds(600);
+        appConfig.setRefreshJitter(0.2);
+
+        assertEquals(300_000, DomainIpConvertor.refreshDelayMillis(appConfig, 300, 0));
+        assertEquals(240_000, DomainIpConvertor.refreshDelayMillis(appConfig, 300, 1));
+        // ttl超出上下限时按上下限
+        assertEquals(60_000, DomainIpConvertor.refreshDelayMillis(appConfig, 5, 0));
+        assertEquals(600_000, DomainIpConvertor.refreshDelayMillis(appConfig, 86400, 0));
+        // 没有ttl时按上限
+        assertEquals(600_000, DomainIpConvertor.refreshDelayMillis(appConfig, -1, 0));
+    }
+
+    @Test
+    public void testRetryDelayBacksOffExponentially() {
+        AppConfig appConfig = new AppConfig();
+        appConfig.setRetryMinIntervalSeconds(10);
+        appConfig.setRetryMaxIntervalSeconds(600);
+        appConfig.setRefreshJitter(0.2);
+
+        assertEquals(10_000, DomainIpConvertor.retryDelayMillis(appConfig, 1, 0));
+        assertEquals(20_000, DomainIpConvertor.retryDelayMillis(appConfig, 2, 0));
+        assertEquals(320_000, DomainIpConvertor.retryDelayMillis(appConfig, 6, 0));
+        assertEquals(600_000, DomainIpConvertor.retryDelayMillis(appConfig, 7, 0));
+        assertEquals(600_000, DomainIpConvertor.retryDelayMillis(appConfig, 100, 0));
+        assertEquals(8_000, DomainIpConvertor.retryDelayMillis(appConfig, 1, 1));
+    }
+}
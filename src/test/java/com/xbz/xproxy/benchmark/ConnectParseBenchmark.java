@@ -0,0 +1,126 @@
+package com.xbz.xproxy.benchmark;
+
+import com.xbz.xproxy.netty.ProxyFrontendConnectHandler;
+import com.xbz.xproxy.netty.ProxyFrontendTransferHandler;
+import com.xbz.xproxy.netty.SimpleNettySocketHttpProxy;
+import com.xbz.xproxy.pojo.ProxyServerConfig;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.DefaultChannelConfig;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.AddressResolverGroup;
+import io.netty.resolver.DefaultNameResolver;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CONNECT请求处理基准测试<br>
+ * 使用{@link EmbeddedChannel}，不经过网络：每次操作新建与代理服务器相同的客户端pipeline，
+ * 从解码CONNECT请求、{@link ProxyFrontendConnectHandler}建立目标连接、写出200应答并移除http编解码器，到关闭两端连接。
+ * 目标为IP地址，不经过域名解析与按需检测；目标连接同为EmbeddedChannel，连接立即成功。<br>
+ * 运行：mvn -Pbenchmark test-compile exec:exec -Djmh.args="ConnectParseBenchmark -f 1 -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConnectParseBenchmark {
+    /**
+     * 所有eventLoop共用同一解析器：每次操作都是新的EmbeddedChannel及eventLoop，按eventLoop缓存解析器会持续增长
+     */
+    private static final AddressResolverGroup<InetSocketAddress> RESOLVER_GROUP = new AddressResolverGroup<>() {
+        private final AddressResolver<InetSocketAddress> resolver =
+                new DefaultNameResolver(ImmediateEventExecutor.INSTANCE).asAddressResolver();
+
+        @Override
+        protected AddressResolver<InetSocketAddress> newResolver(EventExecutor executor) {
+            return resolver;
+        }
+
+        @Override
+        public AddressResolver<InetSocketAddress> getResolver(EventExecutor executor) {
+            return resolver;
+        }
+    };
+
+    /**
+     * minimal：只有Host头；browser：浏览器实际发送的CONNECT请求头
+     */
+    @Param({"minimal", "browser"})
+    public String request;
+
+    private ProxyServerConfig config;
+    private ByteBuf requestBytes;
+
+    @Setup
+    public void setup() {
+        config = new ProxyServerConfig();
+        String text = "minimal".equals(request)
+                ? "CONNECT 10.0.0.1:443 HTTP/1.1\r\nHost: 10.0.0.1:443\r\n\r\n"
+                : "CONNECT 10.0.0.1:443 HTTP/1.1\r\n"
+                + "Host: 10.0.0.1:443\r\n"
+                + "Proxy-Connection: keep-alive\r\n"
+                + "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 "
+                + "(KHTML, like Gecko) Chrome/138.0.0.0 Safari/537.36\r\n\r\n";
+        requestBytes = Unpooled.unreleasableBuffer(
+                Unpooled.directBuffer().writeBytes(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Benchmark
+    public Object connect() throws Exception {
+        TunnelEmbeddedChannel client = new TunnelEmbeddedChannel();
+        client.pipeline().addLast(SimpleNettySocketHttpProxy.CHANNEL_HANDLER_HTTP_REQUEST_DECODER,
+                SimpleNettySocketHttpProxy.createHttpRequestDecoder());
+        // CONNECT不使用连接池
+        client.pipeline().addLast(SimpleNettySocketHttpProxy.CHANNEL_HANDLER_PROXY_FRONTEND_CONNECT,
+                new ProxyFrontendConnectHandler(config, null, RESOLVER_GROUP));
+        client.pipeline().addLast(SimpleNettySocketHttpProxy.CHANNEL_HANDLER_PROXY_FRONTEND_TRANSFER,
+                new ProxyFrontendTransferHandler(config.isFlushConsolidation()));
+        client.pipeline().addLast(SimpleNettySocketHttpProxy.CHANNEL_HANDLER_HTTP_RESPONSE_ENCODER,
+                new HttpResponseEncoder());
+        client.register();
+        client.writeInbound(requestBytes.duplicate());
+        client.runPendingTasks();
+        Object response = client.readOutbound();
+        if (response == null) {
+            throw new IllegalStateException("CONNECT未应答");
+        }
+        ReferenceCountUtil.release(response);
+        client.finishAndReleaseAll();
+        return response;
+    }
+
+    /**
+     * 可由Bootstrap通过反射创建的EmbeddedChannel：构造时不注册，由注册方指定eventLoop；
+     * 接受目标连接设置的socket选项，避免每次连接输出未知选项警告
+     */
+    public static class TunnelEmbeddedChannel extends EmbeddedChannel {
+        private final ChannelConfig config = new DefaultChannelConfig(this) {
+            @Override
+            public <T> boolean setOption(ChannelOption<T> option, T value) {
+                return super.setOption(option, value)
+                        || option == ChannelOption.SO_KEEPALIVE || option == ChannelOption.TCP_NODELAY;
+            }
+        };
+
+        public TunnelEmbeddedChannel() {
+            super(false, false);
+        }
+
+        @Override
+        public ChannelConfig config() {
+            return config;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.xbz.xproxy.benchmark;
+
+import com.xbz.xproxy.DomainIpConvertor;
+import com.xbz.xproxy.pojo.DomainIP;
+import com.xbz.xproxy.pojo.DomainIPInfo;
+import com.xbz.xproxy.pojo.DomainIPSnapshot;
+import com.xbz.xproxy.pojo.DomainRoute;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 域名选择IP基准测试<br>
+ * 对比eventLoop中按域名选择目标IP的开销：预先计算的路由表（一次哈希查找加数组读取）与每次过滤、排序IP列表。
+ * 每个域名{@code ipCount}个IP，连接统计随机分布（已连接/未连接/冷却中）。<br>
+ * 运行：mvn -Pbenchmark test-compile exec:exec -Djmh.args="DomainRouteLookupBenchmark -f 1 -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DomainRouteLookupBenchmark {
+    @Param({"10000"})
+    public int domainCount;
+
+    @Param({"1", "4", "16"})
+    public int ipCount;
+
+    private DomainIPSnapshot snapshot;
+    private String[] domains;
+    private int index;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        DomainIPSnapshot.Builder builder = DomainIPSnapshot.EMPTY.toBuilder();
+        domains = new String[domainCount];
+        for (int i = 0; i < domainCount; i++) {
+            String domain = "d" + i + ".example.com";
+            List<DomainIPInfo> ipList = new ArrayList<>(ipCount);
+            for (int j = 0; j < ipCount; j++) {
+                DomainIPInfo ipInfo = new DomainIPInfo();
+                ipInfo.setDomain(domain);
+                ipInfo.setIp("10." + (i >> 8 & 0xff) + "." + (i & 0xff) + "." + j);
+                ipInfo.setProbeRttMillis(10 + random.nextInt(200));
+                int state = random.nextInt(4);
+                if (state == 1) {
+                    ipInfo.recordConnectSuccess(TimeUnit.MILLISECONDS.toNanos(10 + random.nextInt(200)));
+                } else if (state == 2) {
+                    ipInfo.recordConnectFailure();
+                }
+                ipList.add(ipInfo);
+            }
+            DomainIP domainIP = new DomainIP();
+            domainIP.setDomain(domain);
+            domainIP.setIpList(ipList);
+            builder.resolved(domain, domainIP);
+            domains[i] = domain;
+        }
+        snapshot = builder.build();
+    }
+
+    private String nextDomain() {
+        int i = index + 1;
+        if (i == domains.length) {
+            i = 0;
+        }
+        index = i;
+        return domains[i];
+    }
+
+    /**
+     * 预先计算的路由表
+     */
+    @Benchmark
+    public DomainIPInfo routeLookup() {
+        DomainRoute route = snapshot.getRoute(nextDomain());
+        return route != null ? route.getBest() : null;
+    }
+
+    /**
+     * 每次查找时过滤、排序IP列表
+     */
+    @Benchmark
+    public DomainIPInfo scanLookup() {
+        return DomainIpConvertor.getRealAvailableIpInfo(snapshot.getDomainIP(nextDomain()));
+    }
+}
@@ -0,0 +1,69 @@
+package com.xbz.xproxy.benchmark;
+
+import com.xbz.xproxy.netty.ClientChannelContext;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.*;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 暂存数据转发基准测试<br>
+ * 普通http转发时，目标连接借出前到达的请求及请求体暂存在{@link ClientChannelContext}中，绑定目标连接后统一转发。
+ * 每次操作暂存一个请求头及{@code pendingCount}个请求体分片，绑定目标连接（{@link EmbeddedChannel}）后转发并清空目标连接的写出队列。<br>
+ * 运行：mvn -Pbenchmark test-compile exec:exec -Djmh.args="PendingFlushBenchmark -f 1 -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PendingFlushBenchmark {
+    @Param({"0", "8", "64"})
+    public int pendingCount;
+
+    @Param({"1024"})
+    public int chunkSize;
+
+    private EmbeddedChannel clientChannel;
+    private EmbeddedChannel targetChannel;
+    private ByteBuf chunk;
+
+    @Setup
+    public void setup() {
+        clientChannel = new EmbeddedChannel();
+        targetChannel = new EmbeddedChannel();
+        chunk = Unpooled.unreleasableBuffer(Unpooled.directBuffer(chunkSize).writeZero(chunkSize));
+    }
+
+    @Benchmark
+    public int flush() {
+        ClientChannelContext clientCtx = new ClientChannelContext("10.0.0.1", null, clientChannel, null);
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/upload");
+        request.headers().set(HttpHeaderNames.HOST, "example.com");
+        HttpUtil.setTransferEncodingChunked(request, true);
+        clientCtx.addPendingData(request);
+        for (int i = 0; i < pendingCount; i++) {
+            clientCtx.addPendingData(new DefaultHttpContent(chunk.duplicate()));
+        }
+        clientCtx.addPendingData(LastHttpContent.EMPTY_LAST_CONTENT);
+        clientCtx.bindTarget(targetChannel);
+        clientCtx.flushPendingData();
+        int forwarded = 0;
+        Object msg;
+        while ((msg = targetChannel.readOutbound()) != null) {
+            ReferenceCountUtil.release(msg);
+            forwarded++;
+        }
+        return forwarded;
+    }
+
+    @TearDown
+    public void tearDown() {
+        clientChannel.finishAndReleaseAll();
+        targetChannel.finishAndReleaseAll();
+    }
+}
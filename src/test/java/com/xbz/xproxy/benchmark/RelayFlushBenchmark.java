@@ -0,0 +1,190 @@
+package com.xbz.xproxy.benchmark;
+
+import com.xbz.xproxy.netty.ProxyBackendHandler;
+import com.xbz.xproxy.netty.TransportTypeEnum;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 转发路径flush合并基准测试<br>
+ * 真实loopback连接：source --&gt; relay(ProxyBackendHandler) --&gt; sink，source每次操作突发写入一批小包（模拟TLS记录）。
+ * relay以与小包相同大小的固定缓冲读取，一轮读取（一次channelReadComplete）最多包含{@value #READS_PER_READ_COMPLETE}次channelRead，
+ * 使合并flush与逐包flush的差异得以体现（loopback上内核通常把突发数据合并为一次大读取，一轮只有一次channelRead，两种模式flush次数相同）。
+ * 统计每次操作的吞吐，以及relay的读取次数、一轮读取次数与写向sink的flush次数（每次flush至少对应一次write/writev系统调用）。<br>
+ * 运行：mvn -Pbenchmark test-compile exec:exec -Djmh.args="RelayFlushBenchmark -f 1"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RelayFlushBenchmark {
+    /**
+     * 每次操作写入的小包数量
+     */
+    private static final int RECORDS_PER_OP = 1024;
+    /**
+     * relay一轮读取的最大读取次数
+     */
+    private static final int READS_PER_READ_COMPLETE = 16;
+
+    @Param({"64", "512"})
+    public int recordSize;
+
+    @Param({"true", "false"})
+    public boolean flushConsolidation;
+
+    @Param({"nio"})
+    public String transport;
+
+    private EventLoopGroup group;
+    private Channel sinkServerChannel;
+    private Channel relayServerChannel;
+    private Channel sourceChannel;
+    private ByteBuf record;
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong relayFlushes = new AtomicLong();
+    private final AtomicLong relayReads = new AtomicLong();
+    private final AtomicLong relayReadCompletes = new AtomicLong();
+    private long expectedBytes;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class FlushCounters {
+        /**
+         * relay向sink写出的flush次数
+         */
+        public long flushes;
+        /**
+         * relay从source读取的次数（channelRead）
+         */
+        public long reads;
+        /**
+         * relay的读取轮数（channelReadComplete）
+         */
+        public long readCompletes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        TransportTypeEnum transportType = TransportTypeEnum.select(transport);
+        group = transportType.newEventLoopGroup(2);
+
+        // sink：只统计收到的字节数
+        sinkServerChannel = new ServerBootstrap()
+                .group(group)
+                .channel(transportType.getServerChannelClass())
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new SimpleChannelInboundHandler<ByteBuf>() {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
+                                receivedBytes.addAndGet(msg.readableBytes());
+                            }
+                        });
+                    }
+                })
+                .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+        // relay：每个接入连接都连接到sink，通过ProxyBackendHandler转发
+        relayServerChannel = new ServerBootstrap()
+                .group(group)
+                .channel(transportType.getServerChannelClass())
+                .childOption(ChannelOption.AUTO_READ, false)
+                .childOption(ChannelOption.RCVBUF_ALLOCATOR,
+                        new FixedRecvByteBufAllocator(recordSize).maxMessagesPerRead(READS_PER_READ_COMPLETE))
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        Channel sinkChannel = new Bootstrap()
+                                .group(ch.eventLoop())
+                                .channel(ch.getClass())
+                                .option(ChannelOption.TCP_NODELAY, true)
+                                .handler(new ChannelDuplexHandler() {
+                                    @Override
+                                    public void flush(ChannelHandlerContext ctx) throws Exception {
+                                        relayFlushes.incrementAndGet();
+                                        super.flush(ctx);
+                                    }
+
+                                    @Override
+                                    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+                                        // 与ProxyFrontendTransferHandler一致：写缓冲回落后恢复读取
+                                        if (ctx.channel().isWritable()) {
+                                            ch.config().setAutoRead(true);
+                                        }
+                                        super.channelWritabilityChanged(ctx);
+                                    }
+                                })
+                                .connect(sinkServerChannel.localAddress())
+                                .addListener((ChannelFutureListener) future -> ch.config().setAutoRead(true))
+                                .channel();
+                        ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                relayReads.incrementAndGet();
+                                ctx.fireChannelRead(msg);
+                            }
+
+                            @Override
+                            public void channelReadComplete(ChannelHandlerContext ctx) {
+                                relayReadCompletes.incrementAndGet();
+                                ctx.fireChannelReadComplete();
+                            }
+                        });
+                        ch.pipeline().addLast(new ProxyBackendHandler(sinkChannel, flushConsolidation));
+                    }
+                })
+                .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+        sourceChannel = new Bootstrap()
+                .group(group)
+                .channel(transportType.getSocketChannelClass())
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInboundHandlerAdapter())
+                .connect(relayServerChannel.localAddress()).sync().channel();
+
+        byte[] bytes = new byte[recordSize];
+        record = Unpooled.unreleasableBuffer(Unpooled.directBuffer(recordSize).writeBytes(bytes));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS_PER_OP)
+    public long relaySmallRecords(FlushCounters counters) {
+        long flushesBefore = relayFlushes.get();
+        long readsBefore = relayReads.get();
+        long readCompletesBefore = relayReadCompletes.get();
+        expectedBytes += (long) recordSize * RECORDS_PER_OP;
+        // 突发写入，relay每轮读取可以连续读到多个小包
+        for (int i = 0; i < RECORDS_PER_OP; i++) {
+            sourceChannel.write(record.duplicate());
+        }
+        sourceChannel.flush();
+        while (receivedBytes.get() < expectedBytes) {
+            LockSupport.parkNanos(1_000);
+        }
+        counters.flushes += relayFlushes.get() - flushesBefore;
+        counters.reads += relayReads.get() - readsBefore;
+        counters.readCompletes += relayReadCompletes.get() - readCompletesBefore;
+        return receivedBytes.get();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        sourceChannel.close().sync();
+        relayServerChannel.close().sync();
+        sinkServerChannel.close().sync();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+}
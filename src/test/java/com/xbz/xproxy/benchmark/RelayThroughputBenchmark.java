@@ -0,0 +1,135 @@
+package com.xbz.xproxy.benchmark;
+
+import com.xbz.xproxy.netty.ProxyBackendHandler;
+import com.xbz.xproxy.netty.TransportTypeEnum;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 转发吞吐基准测试<br>
+ * 真实loopback连接：source --&gt; relay(ProxyBackendHandler) --&gt; sink，source持续写入大块数据（模拟下载），
+ * relay每次读取使用固定大小{@code bufferSize}的缓冲，对比不同读取缓冲大小下的转发吞吐。
+ * 每次操作转发一个{@value #CHUNK_SIZE}字节的数据块，吞吐乘以数据块大小即为每秒转发字节数。<br>
+ * 运行：mvn -Pbenchmark test-compile exec:exec -Djmh.args="RelayThroughputBenchmark -f 1"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RelayThroughputBenchmark {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    /**
+     * 每次调用写入的数据块数量
+     */
+    private static final int CHUNKS_PER_INVOCATION = 64;
+
+    @Param({"2048", "16384", "65536"})
+    public int bufferSize;
+
+    @Param({"nio"})
+    public String transport;
+
+    private EventLoopGroup group;
+    private Channel sinkServerChannel;
+    private Channel relayServerChannel;
+    private Channel sourceChannel;
+    private ByteBuf chunk;
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private long expectedBytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        TransportTypeEnum transportType = TransportTypeEnum.select(transport);
+        group = transportType.newEventLoopGroup(2);
+
+        // sink：只统计收到的字节数
+        sinkServerChannel = new ServerBootstrap()
+                .group(group)
+                .channel(transportType.getServerChannelClass())
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new SimpleChannelInboundHandler<ByteBuf>() {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
+                                receivedBytes.addAndGet(msg.readableBytes());
+                            }
+                        });
+                    }
+                })
+                .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+        // relay：每个接入连接都连接到sink，以固定大小的缓冲读取，通过ProxyBackendHandler转发
+        relayServerChannel = new ServerBootstrap()
+                .group(group)
+                .channel(transportType.getServerChannelClass())
+                .childOption(ChannelOption.AUTO_READ, false)
+                .childOption(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(bufferSize))
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        Channel sinkChannel = new Bootstrap()
+                                .group(ch.eventLoop())
+                                .channel(ch.getClass())
+                                .option(ChannelOption.TCP_NODELAY, true)
+                                .handler(new ChannelInboundHandlerAdapter() {
+                                    @Override
+                                    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+                                        // 与ProxyFrontendTransferHandler一致：写缓冲回落后恢复读取
+                                        if (ctx.channel().isWritable()) {
+                                            ch.config().setAutoRead(true);
+                                        }
+                                        super.channelWritabilityChanged(ctx);
+                                    }
+                                })
+                                .connect(sinkServerChannel.localAddress())
+                                .addListener((ChannelFutureListener) future -> ch.config().setAutoRead(true))
+                                .channel();
+                        ch.pipeline().addLast(new ProxyBackendHandler(sinkChannel, true));
+                    }
+                })
+                .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+        sourceChannel = new Bootstrap()
+                .group(group)
+                .channel(transportType.getSocketChannelClass())
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInboundHandlerAdapter())
+                .connect(relayServerChannel.localAddress()).sync().channel();
+
+        chunk = Unpooled.unreleasableBuffer(Unpooled.directBuffer(CHUNK_SIZE).writeZero(CHUNK_SIZE));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS_PER_INVOCATION)
+    public long relay() {
+        expectedBytes += (long) CHUNK_SIZE * CHUNKS_PER_INVOCATION;
+        for (int i = 0; i < CHUNKS_PER_INVOCATION; i++) {
+            sourceChannel.write(chunk.duplicate());
+        }
+        sourceChannel.flush();
+        while (receivedBytes.get() < expectedBytes) {
+            LockSupport.parkNanos(1_000);
+        }
+        return receivedBytes.get();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        sourceChannel.close().sync();
+        relayServerChannel.close().sync();
+        sinkServerChannel.close().sync();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+    }
+}
@@ -0,0 +1,54 @@
+package com.xbz.xproxy.jfr;
+
+import com.xbz.xproxy.pojo.DomainIPInfo;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UpstreamSelectedEventTest {
+
+    @Test
+    public void testReason() throws Exception {
+        DomainIPInfo best = newIpInfo("1.1.1.1");
+        DomainIPInfo second = newIpInfo("2.2.2.2");
+        DomainIPInfo preferred = newIpInfo("3.3.3.3");
+        preferred.setPreferred(true);
+
+        Path file = Files.createTempFile("xproxy", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(UpstreamSelectedEvent.class);
+            recording.start();
+            UpstreamSelectedEvent.emit("a.com", best, best, 2);
+            UpstreamSelectedEvent.emit("a.com", second, best, 2);
+            UpstreamSelectedEvent.emit("a.com", preferred, preferred, 1);
+            UpstreamSelectedEvent.emit("b.com", null, null, 0);
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertEquals(4, events.size());
+            assertEquals(UpstreamSelectedEvent.REASON_BEST, events.get(0).getString("reason"));
+            assertEquals(UpstreamSelectedEvent.REASON_RACE, events.get(1).getString("reason"));
+            assertEquals("2.2.2.2", events.get(1).getString("ip"));
+            assertEquals(UpstreamSelectedEvent.REASON_PREFERRED, events.get(2).getString("reason"));
+            assertEquals(UpstreamSelectedEvent.REASON_DIRECT, events.get(3).getString("reason"));
+            assertEquals("b.com", events.get(3).getString("ip"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static DomainIPInfo newIpInfo(String ip) {
+        DomainIPInfo ipInfo = new DomainIPInfo();
+        ipInfo.setDomain("a.com");
+        ipInfo.setIp(ip);
+        return ipInfo;
+    }
+}
@@ -0,0 +1,26 @@
+package com.xbz.xproxy.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+    @Test
+    public void testWriteCumulativeBuckets() {
+        Histogram histogram = new Histogram(new double[]{0.01, 0.1});
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(10));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+        histogram.record(TimeUnit.SECONDS.toNanos(1));
+        StringBuilder sb = new StringBuilder();
+        histogram.write(sb, "t_seconds", "domain=\"a.com\"");
+        assertEquals("t_seconds_bucket{domain=\"a.com\",le=\"0.01\"} 2\n"
+                + "t_seconds_bucket{domain=\"a.com\",le=\"0.1\"} 3\n"
+                + "t_seconds_bucket{domain=\"a.com\",le=\"+Inf\"} 4\n"
+                + "t_seconds_sum{domain=\"a.com\"} 1.065\n"
+                + "t_seconds_count{domain=\"a.com\"} 4\n", sb.toString());
+    }
+}
@@ -0,0 +1,54 @@
+package com.xbz.xproxy.netty;
+
+import com.xbz.xproxy.pojo.ProxyServerConfig;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.resolver.DefaultAddressResolverGroup;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProxyFrontendConnectHandlerTest {
+    private EmbeddedChannel channel;
+    private ClientChannelContext clientCtx;
+
+    /**
+     * 模拟上一个请求的响应尚未结束：后续请求进入队列并暂停读取
+     */
+    @Before
+    public void setUp() {
+        channel = new EmbeddedChannel(
+                new ProxyFrontendConnectHandler(new ProxyServerConfig(), null, DefaultAddressResolverGroup.INSTANCE));
+        clientCtx = new ClientChannelContext("example.com", null, channel, null);
+        channel.attr(ProxyFrontendConnectHandler.CLIENT_CTX_KEY).set(clientCtx);
+        channel.writeInbound(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "http://example.com/"));
+    }
+
+    @Test
+    public void upstreamWritableDoesNotResumeWhileQueued() {
+        EmbeddedChannel target = new EmbeddedChannel(new ProxyHttpBackendHandler(false));
+        clientCtx.bindTarget(target);
+        assertFalse(channel.config().isAutoRead());
+        target.pipeline().fireChannelWritabilityChanged();
+        assertFalse(channel.config().isAutoRead());
+        target.finishAndReleaseAll();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void closesWhenQueueExceedsLimit() {
+        for (int i = 0; i < ProxyFrontendConnectHandler.MAX_QUEUED_MESSAGES; i++) {
+            channel.writeInbound(new DefaultHttpContent(Unpooled.wrappedBuffer(new byte[16])));
+            if (i < ProxyFrontendConnectHandler.MAX_QUEUED_MESSAGES - 1) {
+                assertTrue(channel.isActive());
+            }
+        }
+        assertFalse(channel.isActive());
+        channel.finishAndReleaseAll();
+    }
+}
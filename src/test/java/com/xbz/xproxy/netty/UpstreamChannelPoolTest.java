@@ -0,0 +1,108 @@
+package com.xbz.xproxy.netty;
+
+import com.xbz.xproxy.pojo.ProxyServerConfig;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.resolver.DefaultAddressResolverGroup;
+import io.netty.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class UpstreamChannelPoolTest {
+    private ServerSocket server;
+    private final List<Socket> accepted = new ArrayList<>();
+    private EventLoopGroup group;
+    private UpstreamChannelPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    synchronized (accepted) {
+                        accepted.add(socket);
+                    }
+                }
+            } catch (Exception ignored) {
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        ProxyServerConfig config = new ProxyServerConfig();
+        config.setUpstreamIdleTimeoutSeconds(1);
+        group = config.getTransport().newEventLoopGroup(1);
+        pool = new UpstreamChannelPool(config, DefaultAddressResolverGroup.INSTANCE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+        server.close();
+        synchronized (accepted) {
+            for (Socket socket : accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testPoolRemovedAfterIdleEviction() throws Exception {
+        EventLoop eventLoop = group.next();
+        InetSocketAddress address = new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+        Channel channel = pool.acquire(eventLoop, address).get(5, TimeUnit.SECONDS);
+        assertEquals(1, pool.getPoolCount());
+        eventLoop.submit(() -> pool.release(channel)).sync();
+        // 空闲连接保留在池中
+        Thread.sleep(200);
+        assertEquals(1, pool.getPoolCount());
+        // 空闲超时淘汰最后一个连接后移除连接池
+        waitForPoolCount(0);
+    }
+
+    @Test
+    public void testPoolRemovedAfterAcquiredChannelClosed() throws Exception {
+        EventLoop eventLoop = group.next();
+        InetSocketAddress address = new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+        Channel channel = pool.acquire(eventLoop, address).get(5, TimeUnit.SECONDS);
+        // 借出中的连接直接关闭，不归还
+        channel.close().sync();
+        waitForPoolCount(0);
+    }
+
+    @Test
+    public void testPoolRemovedAfterConnectFailure() throws Exception {
+        EventLoop eventLoop = group.next();
+        ServerSocket closed = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        InetSocketAddress address = new InetSocketAddress(closed.getInetAddress(), closed.getLocalPort());
+        closed.close();
+        Future<Channel> acquireFuture = pool.acquire(eventLoop, address);
+        assertTrue(acquireFuture.await(5, TimeUnit.SECONDS));
+        assertFalse(acquireFuture.isSuccess());
+        waitForPoolCount(0);
+    }
+
+    private void waitForPoolCount(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getPoolCount() != expected) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("连接池数量为" + pool.getPoolCount() + "，期望" + expected);
+            }
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.xbz.xproxy.pojo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DomainIPSnapshotTest {
+
+    private static DomainIP domainIP(String domain) {
+        DomainIP domainIP = new DomainIP();
+        domainIP.setDomain(domain);
+        domainIP.setIpList(new ArrayList<>());
+        return domainIP;
+    }
+
+    @Test
+    public void testBuilderDoesNotModifySnapshot() {
+        DomainIPSnapshot first = DomainIPSnapshot.EMPTY.toBuilder()
+                .resolved("a.com", domainIP("a.com"))
+                .unresolved("b.com")
+                .build();
+        DomainIPSnapshot second = first.toBuilder()
+                .resolved("b.com", domainIP("b.com"))
+                .unresolved("a.com")
+                .build();
+
+        assertNotNull(first.getDomainIP("a.com"));
+        assertNull(first.getDomainIP("b.com"));
+        assertEquals(Set.of("b.com"), first.getNoResolveDomains());
+
+        assertNull(second.getDomainIP("a.com"));
+        assertNotNull(second.getDomainIP("b.com"));
+        assertEquals(Set.of("a.com"), second.getNoResolveDomains());
+        assertTrue(DomainIPSnapshot.EMPTY.getDomainIPMap().isEmpty());
+    }
+
+    @Test
+    public void testRouteReusedWhenDomainIPUnchanged() {
+        DomainIPSnapshot first = DomainIPSnapshot.EMPTY.toBuilder()
+                .resolved("a.com", domainIP("a.com"))
+                .resolved("b.com", domainIP("b.com"))
+                .build();
+        DomainIPSnapshot second = first.toBuilder()
+                .resolved("b.com", domainIP("b.com"))
+                .build();
+
+        assertSame(first.getRoute("a.com"), second.getRoute("a.com"));
+        assertNotSame(first.getRoute("b.com"), second.getRoute("b.com"));
+        assertSame(second.getDomainIP("b.com"), second.getRoute("b.com").getDomainIP());
+        assertNull(second.getRoute("c.com"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotIsImmutable() {
+        DomainIPSnapshot.EMPTY.toBuilder().resolved("a.com", domainIP("a.com")).build()
+                .getDomainIPMap().remove("a.com");
+    }
+}
@@ -0,0 +1,66 @@
+package com.xbz.xproxy.pojo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DomainRouteTest {
+
+    private static DomainIPInfo ipInfo(String ip) {
+        DomainIPInfo ipInfo = new DomainIPInfo();
+        ipInfo.setDomain("a.com");
+        ipInfo.setIp(ip);
+        return ipInfo;
+    }
+
+    @Test
+    public void testRerankAfterConnectStatsChanged() {
+        DomainIPInfo a = ipInfo("1.1.1.1");
+        DomainIPInfo b = ipInfo("2.2.2.2");
+        a.recordConnectSuccess(TimeUnit.MILLISECONDS.toNanos(20));
+        b.recordConnectSuccess(TimeUnit.MILLISECONDS.toNanos(40));
+        DomainIP domainIP = new DomainIP();
+        domainIP.setDomain("a.com");
+        domainIP.setIpList(new ArrayList<>(List.of(a, b)));
+        DomainRoute route = new DomainRoute(domainIP);
+        assertSame(a, route.getBest());
+
+        // 统计变化后在重新排序前保持原顺序
+        a.recordConnectFailure();
+        assertSame(a, route.getBest());
+
+        route.rerank(System.currentTimeMillis());
+        assertArrayEquals(new DomainIPInfo[]{b}, route.getCandidates());
+    }
+
+    @Test
+    public void testInterleaveAddressFamilies() {
+        DomainIPInfo v4a = ipInfo("1.1.1.1");
+        DomainIPInfo v4b = ipInfo("2.2.2.2");
+        DomainIPInfo v4c = ipInfo("3.3.3.3");
+        DomainIPInfo v6a = ipInfo("2001:db8::1");
+        DomainIPInfo v6b = ipInfo("2001:db8::2");
+        v6a.setProbeRttMillis(10);
+        v4a.setProbeRttMillis(20);
+        v4b.setProbeRttMillis(30);
+        v4c.setProbeRttMillis(40);
+        v6b.setProbeRttMillis(50);
+        // 最优IP为IPv6，随后为最优的IPv4
+        assertEquals(List.of(v6a, v4a, v6b, v4b, v4c),
+                DomainRoute.rank(List.of(v4a, v4b, v4c, v6a, v6b), System.currentTimeMillis()));
+        assertEquals(List.of(v4a, v4b), DomainRoute.rank(List.of(v4b, v4a), System.currentTimeMillis()));
+    }
+
+    @Test
+    public void testEmptyRoute() {
+        DomainIP domainIP = new DomainIP();
+        domainIP.setDomain("a.com");
+        DomainRoute route = new DomainRoute(domainIP);
+        assertNull(route.getBest());
+        assertEquals(0, route.getCandidates().length);
+    }
+}
@@ -0,0 +1,47 @@
+package com.xbz.xproxy.probe;
+
+import org.icmp4j.IcmpPingResponse;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class IcmpEchoProberTest {
+
+    private static IcmpEchoProber openOrSkip() {
+        try {
+            return IcmpEchoProber.open();
+        } catch (Throwable e) {
+            // 非linux或ping_group_range未包含当前用户组
+            Assume.assumeNoException(e);
+            return null;
+        }
+    }
+
+    @Test
+    public void testPingLoopback() {
+        try (IcmpEchoProber prober = openOrSkip()) {
+            List<CompletableFuture<IcmpPingResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                futures.add(prober.ping("127.0.0.1", 500));
+            }
+            for (CompletableFuture<IcmpPingResponse> future : futures) {
+                IcmpPingResponse response = future.join();
+                assertTrue(response.getErrorMessage(), response.getSuccessFlag());
+                assertEquals("127.0.0.1", response.getHost());
+                assertTrue(response.getTtl() > 0);
+            }
+        }
+    }
+
+    @Test
+    public void testRejectsIPv6() {
+        try (IcmpEchoProber prober = openOrSkip()) {
+            assertFalse(prober.ping("::1", 500).join().getSuccessFlag());
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.xbz.xproxy.probe;
+
+import com.xbz.xproxy.pojo.ProbeResult;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ProbeCacheTest {
+
+    @Test
+    public void testSameIpProbedOnce() {
+        ProbeCache cache = new ProbeCache(60_000);
+        AtomicInteger probes = new AtomicInteger();
+        CompletableFuture<ProbeResult> pending = new CompletableFuture<>();
+        CompletableFuture<ProbeResult> first = cache.get("1.1.1.1", () -> {
+            probes.incrementAndGet();
+            return pending;
+        });
+        // 进行中的探测共用
+        CompletableFuture<ProbeResult> second = cache.get("1.1.1.1", () -> {
+            probes.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        assertSame(first, second);
+
+        ProbeResult probeResult = new ProbeResult();
+        probeResult.setIp("1.1.1.1");
+        pending.complete(probeResult);
+        // 完成的结果在缓存时间内复用
+        assertSame(probeResult, cache.get("1.1.1.1", () -> {
+            probes.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }).join());
+        assertEquals(1, probes.get());
+        assertEquals(1, cache.getProbeCount());
+
+        cache.get("2.2.2.2", () -> {
+            probes.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        });
+        assertEquals(2, probes.get());
+    }
+
+    @Test
+    public void testExpiredAndFailedProbesRetried() {
+        ProbeCache cache = new ProbeCache(0);
+        AtomicInteger probes = new AtomicInteger();
+        cache.get("1.1.1.1", () -> {
+            probes.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        });
+        cache.get("1.1.1.1", () -> {
+            probes.incrementAndGet();
+            return CompletableFuture.failedFuture(new IllegalStateException());
+        });
+        assertTrue(cache.get("1.1.1.1", () -> {
+            probes.incrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }).isDone());
+        assertEquals(3, probes.get());
+    }
+}
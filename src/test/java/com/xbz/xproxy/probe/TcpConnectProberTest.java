@@ -0,0 +1,42 @@
+package com.xbz.xproxy.probe;
+
+import com.xbz.xproxy.pojo.ProbeResult;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TcpConnectProberTest {
+
+    @Test
+    public void testProbeFallsBackToNextPort() throws Exception {
+        int closedPort;
+        try (ServerSocket closed = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            closedPort = closed.getLocalPort();
+        }
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+             TcpConnectProber prober = new TcpConnectProber(List.of(closedPort, server.getLocalPort()), 3, 1000, false)) {
+            ProbeResult result = prober.probe("localhost", "127.0.0.1").join();
+            assertNotNull(result);
+            assertEquals(server.getLocalPort(), result.getPort());
+            assertEquals(3, result.getTotalSamples());
+            assertEquals(3, result.getSuccessSamples());
+            assertTrue(result.getRttMillis() >= 0 && result.getRttMillis() < 1000);
+            assertFalse(result.isTls());
+        }
+    }
+
+    @Test
+    public void testUnreachable() throws Exception {
+        int closedPort;
+        try (ServerSocket closed = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            closedPort = closed.getLocalPort();
+        }
+        try (TcpConnectProber prober = new TcpConnectProber(List.of(closedPort), 3, 1000, false)) {
+            assertNull(prober.probe("localhost", "127.0.0.1").join());
+        }
+    }
+}
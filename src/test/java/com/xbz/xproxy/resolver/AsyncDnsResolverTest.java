@@ -0,0 +1,143 @@
+package com.xbz.xproxy.resolver;
+
+import com.xbz.xproxy.pojo.DnsAnswer;
+import com.xbz.xproxy.pojo.ResolveFailureEnum;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.dns.*;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class AsyncDnsResolverTest {
+    private static EventLoopGroup group;
+    private static Channel dns1;
+    private static Channel dns2;
+
+    @BeforeClass
+    public static void startDnsServers() throws Exception {
+        group = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
+        dns1 = startDnsServer(Map.of("1.1.1.1", 60L, "2.2.2.2", 30L, "2001:db8::1", 90L));
+        dns2 = startDnsServer(Map.of("2.2.2.2", 120L));
+    }
+
+    @AfterClass
+    public static void stopDnsServers() {
+        dns1.close();
+        dns2.close();
+        group.shutdownGracefully();
+    }
+
+    /**
+     * 本地dns服务，*.test域名返回指定的A及AAAA记录，其他域名返回NXDOMAIN
+     */
+    private static Channel startDnsServer(Map<String, Long> records) throws InterruptedException {
+        return new Bootstrap()
+                .group(group)
+                .channel(NioDatagramChannel.class)
+                .handler(new ChannelInitializer<NioDatagramChannel>() {
+                    @Override
+                    protected void initChannel(NioDatagramChannel ch) {
+                        ch.pipeline().addLast(new DatagramDnsQueryDecoder(), new DatagramDnsResponseEncoder(),
+                                new SimpleChannelInboundHandler<DatagramDnsQuery>() {
+                                    @Override
+                                    protected void channelRead0(ChannelHandlerContext ctx, DatagramDnsQuery query) throws Exception {
+                                        DnsQuestion question = query.recordAt(DnsSection.QUESTION);
+                                        DatagramDnsResponse response = new DatagramDnsResponse(query.recipient(), query.sender(), query.id());
+                                        response.addRecord(DnsSection.QUESTION, question);
+                                        if (question.name().endsWith(".test.")) {
+                                            int addressLength = question.type() == DnsRecordType.AAAA ? 16 : 4;
+                                            for (Map.Entry<String, Long> entry : new TreeMap<>(records).entrySet()) {
+                                                byte[] address = InetAddress.getByName(entry.getKey()).getAddress();
+                                                if (address.length != addressLength) {
+                                                    continue;
+                                                }
+                                                response.addRecord(DnsSection.ANSWER, new DefaultDnsRawRecord(
+                                                        question.name(), question.type(), entry.getValue(), Unpooled.wrappedBuffer(address)));
+                                            }
+                                        } else {
+                                            response.setCode(DnsResponseCode.NXDOMAIN);
+                                        }
+                                        ctx.writeAndFlush(response);
+                                    }
+                                });
+                    }
+                })
+                .bind("127.0.0.1", 0).sync().channel();
+    }
+
+    private static String address(Channel channel) {
+        InetSocketAddress address = (InetSocketAddress) channel.localAddress();
+        return "127.0.0.1:" + address.getPort();
+    }
+
+    @Test
+    public void testResolveMergesDnsServers() {
+        try (AsyncDnsResolver resolver = new AsyncDnsResolver()) {
+            DnsAnswer answer = resolver.resolve("a.test", List.of(address(dns1), address(dns2))).join();
+            assertEquals(List.of("1.1.1.1", "2.2.2.2"), answer.getIpList());
+            assertEquals(30, answer.getMinTtlSeconds());
+            assertNull(answer.getFailure());
+        }
+    }
+
+    @Test
+    public void testResolveIpv6() {
+        try (AsyncDnsResolver resolver = new AsyncDnsResolver()) {
+            DnsAnswer answer = resolver.resolve("a.test", List.of(address(dns1), address(dns2)), true).join();
+            assertEquals(List.of("1.1.1.1", "2.2.2.2", "2001:db8::1"), answer.getIpList());
+            assertEquals(30, answer.getMinTtlSeconds());
+
+            // 只有AAAA记录为空时不影响结果
+            answer = resolver.resolve("a.test", List.of(address(dns2)), true).join();
+            assertEquals(List.of("2.2.2.2"), answer.getIpList());
+            assertNull(answer.getFailure());
+        }
+    }
+
+    @Test
+    public void testAllDnsServersFailed() {
+        try (AsyncDnsResolver resolver = new AsyncDnsResolver()) {
+            // 端口1没有dns服务
+            DnsAnswer answer = resolver.resolve("a.test", List.of("127.0.0.1:1")).join();
+            assertTrue(answer.getIpList().isEmpty());
+            assertEquals(ResolveFailureEnum.DNS_TIMEOUT, answer.getFailure());
+        }
+    }
+
+    @Test
+    public void testNxDomain() {
+        try (AsyncDnsResolver resolver = new AsyncDnsResolver()) {
+            DnsAnswer answer = resolver.resolve("a.example", address(dns1)).join();
+            assertTrue(answer.getIpList().isEmpty());
+            assertEquals(-1, answer.getMinTtlSeconds());
+            assertEquals(ResolveFailureEnum.NXDOMAIN, answer.getFailure());
+        }
+    }
+
+    @Test
+    public void testResolveManyDomainsAtOnce() {
+        try (AsyncDnsResolver resolver = new AsyncDnsResolver()) {
+            List<CompletableFuture<DnsAnswer>> futures = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                futures.add(resolver.resolve("d" + i + ".test", List.of(address(dns2))));
+            }
+            for (CompletableFuture<DnsAnswer> future : futures) {
+                assertEquals(List.of("2.2.2.2"), future.join().getIpList());
+            }
+        }
+    }
+}
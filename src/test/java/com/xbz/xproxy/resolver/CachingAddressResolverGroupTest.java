@@ -0,0 +1,91 @@
+package com.xbz.xproxy.resolver;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioIoHandler;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.handler.codec.dns.*;
+import io.netty.resolver.AddressResolver;
+import io.netty.resolver.dns.SingletonDnsServerAddressStreamProvider;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CachingAddressResolverGroupTest {
+    private static EventLoopGroup group;
+    private static Channel dns;
+    private static final AtomicInteger queryCount = new AtomicInteger();
+
+    @BeforeClass
+    public static void startDnsServer() throws Exception {
+        group = new MultiThreadIoEventLoopGroup(1, NioIoHandler.newFactory());
+        // *.test域名的A记录为1.1.1.1，其他域名返回NXDOMAIN
+        dns = new Bootstrap()
+                .group(group)
+                .channel(NioDatagramChannel.class)
+                .handler(new ChannelInitializer<NioDatagramChannel>() {
+                    @Override
+                    protected void initChannel(NioDatagramChannel ch) {
+                        ch.pipeline().addLast(new DatagramDnsQueryDecoder(), new DatagramDnsResponseEncoder(),
+                                new SimpleChannelInboundHandler<DatagramDnsQuery>() {
+                                    @Override
+                                    protected void channelRead0(ChannelHandlerContext ctx, DatagramDnsQuery query) {
+                                        queryCount.incrementAndGet();
+                                        DnsQuestion question = query.recordAt(DnsSection.QUESTION);
+                                        DatagramDnsResponse response = new DatagramDnsResponse(query.recipient(), query.sender(), query.id());
+                                        response.addRecord(DnsSection.QUESTION, question);
+                                        if (!question.name().endsWith(".test.")) {
+                                            response.setCode(DnsResponseCode.NXDOMAIN);
+                                        } else if (question.type() == DnsRecordType.A) {
+                                            response.addRecord(DnsSection.ANSWER, new DefaultDnsRawRecord(question.name(),
+                                                    DnsRecordType.A, 60, Unpooled.wrappedBuffer(new byte[]{1, 1, 1, 1})));
+                                        }
+                                        ctx.writeAndFlush(response);
+                                    }
+                                });
+                    }
+                })
+                .bind("127.0.0.1", 0).sync().channel();
+    }
+
+    @AfterClass
+    public static void stopDnsServer() {
+        dns.close();
+        group.shutdownGracefully();
+    }
+
+    private static CachingAddressResolverGroup newResolverGroup() {
+        return new CachingAddressResolverGroup(new SingletonDnsServerAddressStreamProvider((InetSocketAddress) dns.localAddress()));
+    }
+
+    @Test
+    public void testResolveIsCached() throws Exception {
+        try (CachingAddressResolverGroup resolverGroup = newResolverGroup()) {
+            AddressResolver<InetSocketAddress> resolver = resolverGroup.getResolver(group.next());
+            InetSocketAddress address = resolver.resolve(InetSocketAddress.createUnresolved("a.test", 443)).get();
+            assertEquals("1.1.1.1", address.getAddress().getHostAddress());
+            assertEquals(443, address.getPort());
+
+            int queries = queryCount.get();
+            address = resolver.resolve(InetSocketAddress.createUnresolved("a.test", 80)).get();
+            assertEquals("1.1.1.1", address.getAddress().getHostAddress());
+            assertEquals(queries, queryCount.get());
+        }
+    }
+
+    @Test
+    public void testResolveFailure() throws Exception {
+        try (CachingAddressResolverGroup resolverGroup = newResolverGroup()) {
+            AddressResolver<InetSocketAddress> resolver = resolverGroup.getResolver(group.next());
+            Throwable cause = resolver.resolve(InetSocketAddress.createUnresolved("a.example", 443)).await().cause();
+            assertTrue(cause instanceof UnknownHostException);
+        }
+    }
+}
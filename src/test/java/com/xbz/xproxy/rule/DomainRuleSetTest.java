@@ -0,0 +1,66 @@
+package com.xbz.xproxy.rule;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DomainRuleSetTest {
+
+    @Test
+    public void testRuleTypes() {
+        DomainRuleSet rules = DomainRuleSet.parse(List.of("github.com", "*.github.io", ".githubusercontent.com", "# 注释", ""));
+
+        assertTrue(rules.matches("github.com"));
+        assertFalse(rules.matches("api.github.com"));
+
+        assertFalse(rules.matches("github.io"));
+        assertTrue(rules.matches("a.github.io"));
+        assertTrue(rules.matches("a.b.github.io"));
+
+        assertTrue(rules.matches("githubusercontent.com"));
+        assertTrue(rules.matches("raw.githubusercontent.com"));
+        assertTrue(rules.matches("RAW.GitHubUserContent.com"));
+
+        assertFalse(rules.matches("notgithubusercontent.com"));
+        assertFalse(rules.matches("com"));
+        assertFalse(rules.matches(""));
+        assertFalse(rules.matches(null));
+
+        assertEquals(List.of("github.com", "githubusercontent.com"), rules.getExactDomains());
+        assertTrue(rules.hasWildcard());
+        assertFalse(DomainRuleSet.parse(List.of("github.com")).hasWildcard());
+    }
+
+    @Test
+    public void testExactDomainIgnoresCase() {
+        DomainRuleSet rules = DomainRuleSet.parse(List.of("GitHub.com", ".githubusercontent.com"));
+        assertTrue(rules.isExactDomain("github.com"));
+        assertTrue(rules.isExactDomain("GitHub.COM"));
+        assertTrue(rules.isExactDomain("GitHubUserContent.com"));
+        assertFalse(rules.isExactDomain("Raw.GitHubUserContent.com"));
+        assertFalse(rules.isExactDomain(null));
+    }
+
+    @Test
+    public void testDuplicateSuffixMergesRuleTypes() {
+        DomainRuleSet rules = DomainRuleSet.parse(List.of("*.github.com", "github.com"));
+        assertTrue(rules.matches("github.com"));
+        assertTrue(rules.matches("api.github.com"));
+    }
+
+    @Test
+    public void testLargeRuleSet() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            lines.add("*.d" + i + ".example.com");
+        }
+        DomainRuleSet rules = DomainRuleSet.parse(lines);
+        assertTrue(rules.matches("a.d0.example.com"));
+        assertTrue(rules.matches("x.y.d99999.example.com"));
+        assertFalse(rules.matches("d5.example.com"));
+        assertFalse(rules.matches("a.d100000.example.com"));
+    }
+}
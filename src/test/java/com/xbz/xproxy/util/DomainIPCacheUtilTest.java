@@ -0,0 +1,82 @@
+package com.xbz.xproxy.util;
+
+import com.xbz.xproxy.pojo.DomainIP;
+import com.xbz.xproxy.pojo.DomainIPInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DomainIPCacheUtilTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static DomainIP domainIP(String domain, long refreshTime, DomainIPInfo... ipInfos) {
+        DomainIP domainIP = new DomainIP();
+        domainIP.setDomain(domain);
+        domainIP.setIpList(new ArrayList<>(List.of(ipInfos)));
+        domainIP.setRefreshTime(refreshTime);
+        return domainIP;
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        DomainIPInfo a = new DomainIPInfo();
+        a.setDomain("github.com");
+        a.setIp("1.1.1.1");
+        a.setProbeRttMillis(12.5);
+        a.setTtl(50);
+        a.recordConnectSuccess(TimeUnit.MILLISECONDS.toNanos(30));
+        DomainIPInfo b = new DomainIPInfo();
+        b.setDomain("github.com");
+        b.setIp("2.2.2.2");
+        b.setPreferred(true);
+        b.recordConnectFailure();
+        long now = System.currentTimeMillis();
+        File file = folder.newFile();
+        DomainIPCacheUtil.save(file, List.of(domainIP("github.com", now, a, b),
+                domainIP("old.com", now - TimeUnit.DAYS.toMillis(2), a)));
+
+        List<DomainIP> loaded = DomainIPCacheUtil.load(file, TimeUnit.DAYS.toMillis(1));
+        assertEquals(1, loaded.size());
+        DomainIP domainIP = loaded.get(0);
+        assertEquals("github.com", domainIP.getDomain());
+        assertEquals(now, domainIP.getRefreshTime());
+        DomainIPInfo loadedA = domainIP.getIpList().get(0);
+        assertEquals("github.com", loadedA.getDomain());
+        assertEquals("1.1.1.1", loadedA.getIp());
+        assertEquals(12.5, loadedA.getProbeRttMillis(), 0);
+        assertEquals(Integer.valueOf(50), loadedA.getTtl());
+        assertEquals(30, loadedA.getConnectRttEwmaMillis(), 0.001);
+        DomainIPInfo loadedB = domainIP.getIpList().get(1);
+        assertTrue(loadedB.isPreferred());
+        assertNull(loadedB.getTtl());
+        assertEquals(1, loadedB.getConnectErrTimes().get());
+        assertEquals(b.getLastConnectErrTime(), loadedB.getLastConnectErrTime());
+    }
+
+    @Test
+    public void testMissingFile() throws IOException {
+        assertTrue(DomainIPCacheUtil.load(new File(folder.getRoot(), "none"), Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptFile() throws IOException {
+        DomainIPInfo ipInfo = new DomainIPInfo();
+        ipInfo.setIp("1.1.1.1");
+        File file = folder.newFile();
+        DomainIPCacheUtil.save(file, List.of(domainIP("github.com", System.currentTimeMillis(), ipInfo)));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 4));
+        DomainIPCacheUtil.load(file, Long.MAX_VALUE);
+    }
+}
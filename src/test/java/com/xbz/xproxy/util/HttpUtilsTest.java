@@ -0,0 +1,71 @@
+package com.xbz.xproxy.util;
+
+import io.netty.handler.codec.http.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HttpUtilsTest {
+
+    @Test
+    public void testToOriginForm() {
+        assertEquals("/a/b?c=1", HttpUtils.toOriginForm("http://example.com/a/b?c=1"));
+        assertEquals("/a", HttpUtils.toOriginForm("http://example.com:8080/a"));
+        assertEquals("/", HttpUtils.toOriginForm("http://example.com"));
+        assertEquals("/?c=1", HttpUtils.toOriginForm("http://example.com?c=1"));
+        assertEquals("/a/b", HttpUtils.toOriginForm("/a/b"));
+        assertEquals("/redirect?to=http://x/y", HttpUtils.toOriginForm("/redirect?to=http://x/y"));
+    }
+
+    @Test
+    public void testHostAndPort() {
+        assertEquals("example.com", HttpUtils.getHost("example.com:8443"));
+        assertEquals(8443, HttpUtils.getPort("example.com:8443", 443));
+        assertEquals("example.com", HttpUtils.getHost("example.com"));
+        assertEquals(80, HttpUtils.getPort("example.com", 80));
+        assertEquals("2001:db8::1", HttpUtils.getHost("[2001:db8::1]:443"));
+        assertEquals(443, HttpUtils.getPort("[2001:db8::1]:443", 80));
+        assertEquals("2001:db8::1", HttpUtils.getHost("[2001:db8::1]"));
+        assertEquals(80, HttpUtils.getPort("[2001:db8::1]", 80));
+        assertEquals("2001:db8::1", HttpUtils.getHost("2001:db8::1"));
+        assertEquals(80, HttpUtils.getPort("2001:db8::1", 80));
+    }
+
+    @Test
+    public void testRemoveHopByHopHeaders() {
+        HttpHeaders headers = new DefaultHttpHeaders();
+        headers.set(HttpHeaderNames.CONNECTION, "keep-alive, X-Hop");
+        headers.set("X-Hop", "1");
+        headers.set(HttpHeaderNames.KEEP_ALIVE, "timeout=5");
+        headers.set(HttpUtils.PROXY_CONNECTION, "keep-alive");
+        headers.set(HttpHeaderNames.PROXY_AUTHORIZATION, "Basic eDp5");
+        headers.set(HttpHeaderNames.CONTENT_LENGTH, "10");
+        headers.set(HttpHeaderNames.HOST, "example.com");
+
+        HttpUtils.removeHopByHopHeaders(headers);
+
+        assertFalse(headers.contains(HttpHeaderNames.CONNECTION));
+        assertFalse(headers.contains("X-Hop"));
+        assertFalse(headers.contains(HttpHeaderNames.KEEP_ALIVE));
+        assertFalse(headers.contains(HttpUtils.PROXY_CONNECTION));
+        assertFalse(headers.contains(HttpHeaderNames.PROXY_AUTHORIZATION));
+        assertEquals("10", headers.get(HttpHeaderNames.CONTENT_LENGTH));
+        assertEquals("example.com", headers.get(HttpHeaderNames.HOST));
+    }
+
+    @Test
+    public void testIsClientKeepAlive() {
+        HttpRequest http11 = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "http://example.com/");
+        assertTrue(HttpUtils.isClientKeepAlive(http11));
+        http11.headers().set(HttpUtils.PROXY_CONNECTION, "close");
+        assertFalse(HttpUtils.isClientKeepAlive(http11));
+
+        HttpRequest http10 = new DefaultHttpRequest(HttpVersion.HTTP_1_0, HttpMethod.GET, "http://example.com/");
+        assertFalse(HttpUtils.isClientKeepAlive(http10));
+        http10.headers().set(HttpUtils.PROXY_CONNECTION, "keep-alive");
+        assertTrue(HttpUtils.isClientKeepAlive(http10));
+        // Connection优先于Proxy-Connection
+        http10.headers().set(HttpHeaderNames.CONNECTION, "close");
+        assertFalse(HttpUtils.isClientKeepAlive(http10));
+    }
+}